@@ -6,12 +6,21 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         BinaryFontStyleTest.class,
+        ChangeSchedulerTest.class,
+        ControllerRegistryTest.class,
+        HistoryStoreTest.class,
+        HistoryTest.class,
         HtmlUtilsTest.class,
         InseparableTest.class,
+        JournalTest.class,
         LineInfoTest.class,
         LineStyleTest.class,
         ListTest.class,
+        MaintenanceTest.class,
         MultiStyleTest.class,
+        RelayoutTest.class,
+        SpanIndexTest.class,
+        SpanTreeTest.class,
         StyleSelectionInfoTest.class,
         WriterTest.class,
 })
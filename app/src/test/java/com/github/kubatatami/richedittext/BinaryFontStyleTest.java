@@ -1,9 +1,18 @@
 package com.github.kubatatami.richedittext;
 
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.UnderlineSpan;
+
+import com.github.kubatatami.richedittext.styles.binary.BoldSpanController;
 import com.github.kubatatami.richedittext.writer.Writer;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class BinaryFontStyleTest extends BaseTest {
 
     public BinaryFontStyleTest(Writer writer) {
@@ -71,4 +80,53 @@ public class BinaryFontStyleTest extends BaseTest {
                 "<strike><u> Text with strikeThrough and underline.</u></strike>");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void styleStateShouldFollowCursor() {
+        writer.write(editText, "Normal");
+        editText.boldClick();
+        writer.write(editText, "Bold");
+        assertTrue(editText.getStyleState().bold);
+        editText.setSelection(2);
+        assertFalse(editText.getStyleState().bold);
+    }
+
+    @Test
+    public void overallBoldShouldFollowWholeText() {
+        editText.boldClick();
+        writer.write(editText, "Bold");
+        assertTrue(editText.getOverallBold());
+        editText.boldClick();
+        writer.write(editText, "Normal");
+        assertFalse(editText.getOverallBold());
+    }
+
+    @Test
+    public void compactionShouldMergeAdjacentSpans() {
+        writer.write(editText, "Bold");
+        editText.getText().setSpan(new BoldSpanController.RichBoldSpan(), 0, 2, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editText.getText().setSpan(new BoldSpanController.RichBoldSpan(), 2, 4, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editText.setSelection(0);
+        assertEquals(1, editText.compactSpans());
+        assertEquals(1, editText.getText().getSpans(0, editText.length(), BoldSpanController.RichBoldSpan.class).length);
+        checkHtml("<b>Bold</b>");
+    }
+
+    @Test
+    public void textShouldBeStyledOnlyWithRichSpans() {
+        writer.write(editText, "Normal");
+        assertFalse(editText.isStyled());
+        assertEquals("Normal", editText.getTextOrHtml());
+        editText.boldClick();
+        writer.write(editText, "Bold");
+        assertTrue(editText.isStyled());
+    }
+
+    @Test
+    public void setTextShouldDropForeignUnderlineSpans() {
+        SpannableStringBuilder text = new SpannableStringBuilder("Underlined");
+        text.setSpan(new UnderlineSpan(), 0, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        editText.setText(text);
+        assertEquals(0, editText.getText().getSpans(0, editText.length(), UnderlineSpan.class).length);
+        checkHtml("Underlined");
+    }
+}
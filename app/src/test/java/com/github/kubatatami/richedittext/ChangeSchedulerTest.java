@@ -0,0 +1,73 @@
+package com.github.kubatatami.richedittext;
+
+import com.github.kubatatami.richedittext.utils.ChangeScheduler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22, packageName = "com.github.kubatatami.richedittext.example")
+public class ChangeSchedulerTest {
+
+    private final ChangeScheduler<String> scheduler = new ChangeScheduler<>();
+
+    private final List<String> values = new ArrayList<>();
+
+    private final BaseRichEditText.OnValueChangeListener<String> listener = new BaseRichEditText.OnValueChangeListener<String>() {
+        @Override
+        public void onValueChange(String value) {
+            values.add(value);
+        }
+    };
+
+    @Test
+    public void immediateShouldDeliverEveryValue() {
+        scheduler.add(listener, ChangeScheduler.Mode.IMMEDIATE, 0);
+        scheduler.dispatch("a");
+        scheduler.dispatch("b");
+        assertEquals(Arrays.asList("a", "b"), values);
+    }
+
+    @Test
+    public void debounceShouldDeliverLastValueAfterQuietInterval() {
+        scheduler.add(listener, ChangeScheduler.Mode.DEBOUNCE, 100);
+        scheduler.dispatch("a");
+        ShadowLooper.idleMainLooper(50);
+        scheduler.dispatch("b");
+        ShadowLooper.idleMainLooper(50);
+        assertTrue(values.isEmpty());
+        ShadowLooper.idleMainLooper(50);
+        assertEquals(Arrays.asList("b"), values);
+    }
+
+    @Test
+    public void throttleShouldDeliverAtMostOncePerInterval() {
+        scheduler.add(listener, ChangeScheduler.Mode.THROTTLE, 100);
+        scheduler.dispatch("a");
+        ShadowLooper.idleMainLooper(0);
+        scheduler.dispatch("b");
+        scheduler.dispatch("c");
+        assertEquals(Arrays.asList("a"), values);
+        ShadowLooper.idleMainLooper(100);
+        assertEquals(Arrays.asList("a", "c"), values);
+    }
+
+    @Test
+    public void removeShouldCancelPendingValue() {
+        scheduler.add(listener, ChangeScheduler.Mode.DEBOUNCE, 100);
+        scheduler.dispatch("a");
+        scheduler.remove(listener);
+        ShadowLooper.idleMainLooper(100);
+        assertTrue(values.isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.kubatatami.richedittext;
+
+import android.graphics.Typeface;
+
+import com.github.kubatatami.richedittext.styles.base.BinaryFontSpanController;
+import com.github.kubatatami.richedittext.styles.base.ControllerRegistry;
+import com.github.kubatatami.richedittext.styles.base.SpanController;
+import com.github.kubatatami.richedittext.styles.binary.BoldSpanController;
+import com.github.kubatatami.richedittext.styles.binary.FontStyleSpanController;
+import com.github.kubatatami.richedittext.styles.binary.ItalicSpanController;
+import com.github.kubatatami.richedittext.styles.binary.UnderlineSpanController;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22, packageName = "com.github.kubatatami.richedittext.example")
+public class ControllerRegistryTest {
+
+    private final List<SpanController<?, ?>> controllers = new ArrayList<>();
+
+    private final ControllerRegistry registry = new ControllerRegistry(controllers);
+
+    @Test
+    public void registryShouldMatchSpanClasses() {
+        UnderlineSpanController underline = new UnderlineSpanController();
+        BoldSpanController bold = new BoldSpanController();
+        ItalicSpanController italic = new ItalicSpanController();
+        controllers.add(underline);
+        controllers.add(bold);
+        controllers.add(italic);
+        assertSame(underline, registry.getController(new UnderlineSpanController.RichUnderlineSpan()));
+        assertSame(bold, registry.getController(new BoldSpanController.RichBoldSpan()));
+        assertSame(italic, registry.getController(new FontStyleSpanController.RichStyleSpan(Typeface.ITALIC)));
+        assertNull(registry.getController(new CustomUnderlineSpan()));
+    }
+
+    @Test
+    public void registryShouldAskControllersWithoutSpanClassFilter() {
+        BinaryFontSpanController<UnderlineSpanController.RichUnderlineSpan> custom =
+                new BinaryFontSpanController<UnderlineSpanController.RichUnderlineSpan>(UnderlineSpanController.RichUnderlineSpan.class, "u") {
+                    @Override
+                    public boolean acceptSpan(Object span) {
+                        return span instanceof UnderlineSpanController.RichUnderlineSpan;
+                    }
+                };
+        controllers.add(custom);
+        assertSame(custom, registry.getController(new UnderlineSpanController.RichUnderlineSpan()));
+        assertSame(custom, registry.getController(new CustomUnderlineSpan()));
+    }
+
+    @Test
+    public void registryShouldUseSpanClassFilterOfSubclass() {
+        UnderlineSpanController underline = new UnderlineSpanController() {
+            @Override
+            public boolean acceptSpan(Object span) {
+                return span instanceof RichUnderlineSpan;
+            }
+
+            @Override
+            public boolean acceptSpanClass(Class<?> spanClass) {
+                return RichUnderlineSpan.class.isAssignableFrom(spanClass);
+            }
+        };
+        controllers.add(underline);
+        assertSame(underline, registry.getController(new CustomUnderlineSpan()));
+    }
+
+    @Test
+    public void invalidateShouldPickUpNewControllers() {
+        assertNull(registry.getController(new UnderlineSpanController.RichUnderlineSpan()));
+        UnderlineSpanController underline = new UnderlineSpanController();
+        controllers.add(underline);
+        registry.invalidate();
+        assertSame(underline, registry.getController(new UnderlineSpanController.RichUnderlineSpan()));
+    }
+
+    private static class CustomUnderlineSpan extends UnderlineSpanController.RichUnderlineSpan {
+
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.kubatatami.richedittext;
+
+import com.github.kubatatami.richedittext.modules.HistoryModule;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryStoreTest extends BaseTest {
+
+    private File file;
+
+    private int undoSteps;
+
+    private int redoSteps;
+
+    public HistoryStoreTest(Writer writer) {
+        super(writer);
+    }
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("history", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        editText.setHistoryFile(null);
+        file.delete();
+    }
+
+    @Test
+    public void historyShouldSurviveReopening() {
+        assertFalse(editText.setHistoryFile(file));
+        writer.write(editText, "First ");
+        editText.setSelection(0, 5);
+        editText.boldClick();
+        editText.setSelection(editText.length());
+        writer.write(editText, "second");
+        editText.undo();
+        checkHtml("<b>First</b> ");
+        assertTrue(editText.setHistoryFile(file));
+        editText.redo();
+        checkHtml("<b>First</b> second");
+        undoAll();
+        checkHtml("");
+    }
+
+    @Test
+    public void historyShouldNotLoadForDifferentText() {
+        editText.setHistoryFile(file);
+        writer.write(editText, "Some text");
+        editText.setHistoryFile(null);
+        editText.getText().insert(0, "Other ");
+        assertFalse(editText.setHistoryFile(file));
+    }
+
+    @Test
+    public void historyShouldNotLoadForReorderedText() {
+        editText.setHistoryFile(file);
+        writer.write(editText, "Some text");
+        editText.getText().replace(0, 4, "Mose");
+        editText.getText().insert(4, " more");
+        editText.getText().delete(4, 9);
+        editText.setHistoryFile(null);
+        editText.getText().replace(0, 4, "Some");
+        assertFalse(editText.setHistoryFile(file));
+    }
+
+    @Test
+    public void historyShouldLoadWhenBothStacksAreFull() {
+        editText.setHistoryFile(file);
+        editText.setHistoryLimit(Integer.MAX_VALUE);
+        editText.setHistoryCoalesceTimeout(0);
+        for (int i = 0; i < 1500; i++) {
+            editText.getText().insert(editText.length(), "x");
+        }
+        for (int i = 0; i < 700; i++) {
+            editText.undo();
+        }
+        assertEquals(800, editText.length());
+        assertTrue(editText.setHistoryFile(file));
+        listenHistory();
+        assertEquals(800, undoSteps);
+        assertEquals(224, redoSteps);
+        undoAll();
+        assertEquals(0, editText.length());
+        redoAll();
+        assertEquals(1024, editText.length());
+    }
+
+    @Test
+    public void historyShouldLoadAfterArenaWrapsAround() {
+        editText.setHistoryFile(file, 4096);
+        editText.setHistoryLimit(Integer.MAX_VALUE);
+        editText.setHistoryCoalesceTimeout(0);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String step = "Step " + i + ". ";
+            editText.getText().insert(editText.length(), step);
+            text.append(step);
+        }
+        assertTrue(editText.setHistoryFile(file, 4096));
+        undoAll();
+        assertTrue(editText.length() > 0);
+        assertTrue(text.toString().startsWith(editText.getText().toString()));
+        redoAll();
+        assertEquals(text.toString(), editText.getText().toString());
+    }
+
+    private void undoAll() {
+        listenHistory();
+        while (undoSteps > 0) {
+            editText.undo();
+        }
+    }
+
+    private void redoAll() {
+        listenHistory();
+        while (redoSteps > 0) {
+            editText.redo();
+        }
+    }
+
+    private void listenHistory() {
+        editText.addOnHistoryChangeListener(new HistoryModule.OnHistoryChangeListener() {
+            @Override
+            public void onHistoryChange(int undoSteps, int redoSteps) {
+                HistoryStoreTest.this.undoSteps = undoSteps;
+                HistoryStoreTest.this.redoSteps = redoSteps;
+            }
+        });
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.kubatatami.richedittext;
+
+import android.text.SpannableStringBuilder;
+import android.view.inputmethod.BaseInputConnection;
+
+import com.github.kubatatami.richedittext.modules.HistoryModule;
+import com.github.kubatatami.richedittext.styles.list.BottomMarginSpan;
+import com.github.kubatatami.richedittext.styles.list.ListItemSpan;
+import com.github.kubatatami.richedittext.styles.list.ListSpan;
+import com.github.kubatatami.richedittext.styles.list.TopMarginSpan;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryTest extends BaseTest {
+
+    private int undoSteps;
+
+    private int redoSteps;
+
+    public HistoryTest(Writer writer) {
+        super(writer);
+    }
+
+    @Test
+    public void undoShouldRemoveWrittenText() {
+        writer.write(editText, "First text.");
+        undoAll();
+        checkHtml("");
+        redoAll();
+        checkHtml("First text.");
+    }
+
+    @Test
+    public void undoShouldRemoveStyleOnly() {
+        writer.write(editText, "Bold text");
+        editText.setSelection(0, 4);
+        editText.boldClick();
+        checkHtml("<b>Bold</b> text");
+        editText.undo();
+        checkHtml("Bold text");
+        editText.redo();
+        checkHtml("<b>Bold</b> text");
+    }
+
+    @Test
+    public void undoShouldRestoreDeletedStyledText() {
+        writer.write(editText, "Normal");
+        editText.boldClick();
+        writer.write(editText, "Bold");
+        writer.delete(editText);
+        checkHtml("Normal<b>Bol</b>");
+        editText.undo();
+        checkHtml("Normal<b>Bold</b>");
+    }
+
+    @Test
+    public void undoShouldRemoveListItemsOfToggledList() {
+        writer.write(editText, "First\nSecond");
+        editText.setSelection(0, editText.length());
+        editText.numberListClick();
+        assertSpanCount(1, ListSpan.class);
+        assertSpanCount(2, ListItemSpan.class);
+        editText.undo();
+        assertSpanCount(0, ListSpan.class);
+        assertSpanCount(0, ListItemSpan.class);
+        assertSpanCount(0, TopMarginSpan.class);
+        assertSpanCount(0, BottomMarginSpan.class);
+        editText.redo();
+        assertSpanCount(1, ListSpan.class);
+        assertSpanCount(2, ListItemSpan.class);
+        assertSpanCount(1, TopMarginSpan.class);
+        assertSpanCount(1, BottomMarginSpan.class);
+    }
+
+    @Test
+    public void historyShouldDropOldestStepsBeyondSizeLimit() {
+        editText.setHistoryCoalesceTimeout(0);
+        for (int i = 0; i < 10; i++) {
+            editText.getText().insert(editText.length(), "Step " + i + ". ");
+        }
+        long limit = editText.getHistorySize() / 2;
+        editText.setHistorySizeLimit(limit);
+        assertTrue(editText.getHistorySize() <= limit);
+        undoAll();
+        assertTrue(editText.getText().toString().startsWith("Step 0. "));
+        editText.getText().insert(editText.length(), "Step 10. ");
+        assertTrue(editText.getHistorySize() <= limit);
+    }
+
+    @Test
+    public void undoShouldRemoveLastWordOnly() {
+        writer.write(editText, "First ");
+        writer.write(editText, "second");
+        editText.undo();
+        checkHtml("First ");
+        editText.redo();
+        checkHtml("First second");
+    }
+
+    @Test
+    public void undoShouldRemoveWholeWordsWithoutWordCoalescing() {
+        editText.setHistoryCoalesceWords(false);
+        writer.write(editText, "First ");
+        writer.write(editText, "second");
+        editText.undo();
+        checkHtml("");
+    }
+
+    @Test
+    public void undoShouldRemoveSingleInsertAfterCoalesceTimeout() {
+        editText.setHistoryCoalesceTimeout(0);
+        editText.getText().insert(0, "First");
+        editText.getText().insert(editText.length(), "Second");
+        editText.undo();
+        checkHtml("First");
+    }
+
+    @Test
+    public void undoShouldRestoreAllBackspacedCharacters() {
+        writer.write(editText, "Some text");
+        for (int i = 0; i < 3; i++) {
+            editText.getText().delete(editText.length() - 1, editText.length());
+        }
+        checkHtml("Some t");
+        editText.undo();
+        checkHtml("Some text");
+    }
+
+    @Test
+    public void restoreHistoryPointShouldRestoreTextAndStyle() {
+        writer.write(editText, "Some text");
+        HistoryModule.HistoryPoint historyPoint = editText.createHistoryPoint();
+        editText.setSelection(0, 4);
+        editText.boldClick();
+        editText.setSelection(editText.length());
+        writer.write(editText, " more");
+        checkHtml("<b>Some</b> text more");
+        editText.restoreHistoryPoint(historyPoint);
+        checkHtml("Some text");
+        editText.undo();
+        checkHtml("<b>Some</b> text more");
+    }
+
+    @Test
+    public void compressedStepsShouldUndoAndRedo() throws InterruptedException {
+        editText.setHistoryCoalesceTimeout(0);
+        StringBuilder paragraph = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            paragraph.append("Compressible sentence. ");
+        }
+        for (int i = 0; i < 5; i++) {
+            editText.getText().insert(editText.length(), paragraph);
+        }
+        String text = editText.getText().toString();
+        long size = editText.getHistorySize();
+        editText.setHistoryCompressionThreshold(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (editText.getHistorySize() >= size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+        assertTrue(editText.getHistorySize() < size);
+        undoAll();
+        checkHtml("");
+        redoAll();
+        assertEquals(text, editText.getText().toString());
+    }
+
+    @Test
+    public void undoShouldRevertWholeBatch() {
+        writer.write(editText, "Some text");
+        editText.runBatch(new Runnable() {
+            @Override
+            public void run() {
+                editText.setSelection(0, 4);
+                editText.boldClick();
+                editText.setSelection(editText.length());
+                writer.write(editText, " more");
+            }
+        });
+        checkHtml("<b>Some</b> text more");
+        editText.undo();
+        checkHtml("Some text");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endBatchWithoutBeginShouldThrow() {
+        editText.endBatch();
+    }
+
+    @Test
+    public void batchShouldEndWhenRunnableThrows() {
+        writer.write(editText, "Some text");
+        try {
+            editText.runBatch(new Runnable() {
+                @Override
+                public void run() {
+                    editText.setSelection(0, 4);
+                    editText.boldClick();
+                    throw new RuntimeException();
+                }
+            });
+        } catch (RuntimeException ignored) {
+        }
+        assertFalse(editText.isInBatch());
+        checkHtml("<b>Some</b> text");
+        editText.undo();
+        checkHtml("Some text");
+    }
+
+    @Test
+    public void undoShouldRevertWholeComposition() {
+        writer.write(editText, "First ");
+        int start = editText.length();
+        for (String composition : new String[]{"s", "se", "sec", "sex", "sec", "second"}) {
+            SpannableStringBuilder text = new SpannableStringBuilder(composition);
+            BaseInputConnection.setComposingSpans(text);
+            editText.getText().replace(start, editText.length(), text);
+            editText.onEndBatchEdit();
+        }
+        BaseInputConnection.removeComposingSpans(editText.getText());
+        editText.onEndBatchEdit();
+        checkHtml("First second");
+        editText.undo();
+        checkHtml("First ");
+    }
+
+    private void assertSpanCount(int count, Class<?> spanClass) {
+        assertEquals(count, editText.getText().getSpans(0, editText.length(), spanClass).length);
+    }
+
+    private void undoAll() {
+        listenHistory();
+        while (undoSteps > 0) {
+            editText.undo();
+        }
+    }
+
+    private void redoAll() {
+        listenHistory();
+        while (redoSteps > 0) {
+            editText.redo();
+        }
+    }
+
+    private void listenHistory() {
+        editText.addOnHistoryChangeListener(new HistoryModule.OnHistoryChangeListener() {
+            @Override
+            public void onHistoryChange(int undoSteps, int redoSteps) {
+                HistoryTest.this.undoSteps = undoSteps;
+                HistoryTest.this.redoSteps = redoSteps;
+            }
+        });
+    }
+}
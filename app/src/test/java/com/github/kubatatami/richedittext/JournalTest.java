@@ -0,0 +1,84 @@
+package com.github.kubatatami.richedittext;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import com.github.kubatatami.richedittext.styles.binary.FontStyleSpanController;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JournalTest extends BaseTest {
+
+    private File file;
+
+    public JournalTest(Writer writer) {
+        super(writer);
+    }
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("journal", "");
+        file.delete();
+    }
+
+    @After
+    public void stopJournal() {
+        editText.stopJournal();
+    }
+
+    @Test
+    public void journalShouldRecoverTypedStyles() throws InterruptedException {
+        editText.startJournal(file);
+        writer.write(editText, "Normal ");
+        editText.boldClick();
+        writer.write(editText, "bold");
+        checkHtml("Normal <b>bold</b>");
+        assertEquals(editText.getHtml(false), recover().getHtml(false));
+    }
+
+    @Test
+    public void journalShouldRecoverPastedStyles() throws InterruptedException {
+        editText.startJournal(file);
+        writer.write(editText, "Typed ");
+        SpannableStringBuilder pasted = new SpannableStringBuilder("Pasted");
+        pasted.setSpan(new FontStyleSpanController.RichStyleSpan(Typeface.BOLD), 0, pasted.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        editText.getText().insert(editText.length(), pasted);
+        checkHtml("Typed <b>Pasted</b>");
+        assertEquals(editText.getHtml(false), recover().getHtml(false));
+    }
+
+    @Test
+    public void journalShouldRecoverEditsAfterSetText() throws InterruptedException {
+        editText.startJournal(file);
+        writer.write(editText, "Old text");
+        editText.setText("New ");
+        editText.flushJournal();
+        editText.boldClick();
+        writer.write(editText, "bold");
+        checkHtml("New <b>bold</b>");
+        assertEquals(editText.getHtml(false), recover().getHtml(false));
+    }
+
+    private RichEditText recover() throws InterruptedException {
+        editText.flushJournal();
+        File journal = new File(file.getPath() + ".journal");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.length() <= 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        RichEditText recovered = new RichEditText(editText.getContext());
+        assertTrue(recovered.startJournal(file));
+        return recovered;
+    }
+}
@@ -37,6 +37,17 @@ public class LineInfoTest extends BaseTest {
         assertEquals(23, lineInfo.end);
     }
 
+    @Test
+    public void dirtyLineInfoShouldCoverTouchedLinesOnly() {
+        writer.write(editText, "First line.\nSecond line.\nThird line.");
+        StyleSelectionInfo styleSelectionInfo = StyleSelectionInfo.getStyleSelectionInfo(editText);
+        styleSelectionInfo.dirtyStart = 14;
+        styleSelectionInfo.dirtyEnd = 15;
+        LineInfo lineInfo = LineInfo.getDirtyLineInfo(editText.getText(), styleSelectionInfo);
+        assertEquals(12, lineInfo.start);
+        assertEquals(25, lineInfo.end);
+    }
+
     private LineInfo getLineInfo() {
         StyleSelectionInfo styleSelectionInfo = StyleSelectionInfo.getStyleSelectionInfo(editText);
         return LineInfo.getLineInfo(editText.getText(), styleSelectionInfo);
@@ -0,0 +1,82 @@
+package com.github.kubatatami.richedittext;
+
+import android.text.Editable;
+
+import com.github.kubatatami.richedittext.modules.HistoryModule;
+import com.github.kubatatami.richedittext.modules.MaintenanceModule;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.Test;
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MaintenanceTest extends BaseTest {
+
+    private int runCount;
+
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            runCount++;
+        }
+    };
+
+    public MaintenanceTest(Writer writer) {
+        super(writer);
+    }
+
+    @Test
+    public void idleSliceShouldWakeUpWhileTasksRemain() {
+        MaintenanceModule module = new MaintenanceModule(new HistoryModule(editText));
+        module.setSliceMs(0);
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        ShadowLooper.pauseMainLooper();
+        try {
+            module.schedule(task);
+            module.schedule(task);
+            int size = scheduler.size();
+            assertTrue(module.queueIdle());
+            assertEquals(1, runCount);
+            assertEquals(size + 1, scheduler.size());
+            ShadowLooper.runUiThreadTasks();
+            assertFalse(module.queueIdle());
+            assertEquals(2, runCount);
+        } finally {
+            ShadowLooper.unPauseMainLooper();
+        }
+    }
+
+    @Test
+    public void flushShouldRunAllTasks() {
+        editText.scheduleMaintenance(task);
+        editText.scheduleMaintenance(task);
+        editText.flushMaintenance();
+        assertEquals(2, runCount);
+    }
+
+    @Test
+    public void pendingRangeShouldFollowTextChanges() {
+        writer.write(editText, "Some text");
+        final int[] range = new int[2];
+        editText.scheduleMaintenance(new MaintenanceModule.RangeTask() {
+            @Override
+            protected void run(Editable editable, int start, int end) {
+                runCount++;
+                range[0] = start;
+                range[1] = end;
+            }
+        }, 5, 9);
+        editText.getText().insert(0, "New ");
+        editText.getText().insert(11, "xx");
+        assertEquals(0, runCount);
+        editText.flushMaintenance();
+        assertEquals(1, runCount);
+        assertEquals(9, range[0]);
+        assertEquals(15, range[1]);
+    }
+}
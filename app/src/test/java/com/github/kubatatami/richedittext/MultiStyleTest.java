@@ -1,12 +1,16 @@
 package com.github.kubatatami.richedittext;
 
 import android.graphics.Color;
+import android.text.Spanned;
 
+import com.github.kubatatami.richedittext.styles.multi.ColorSpanController;
 import com.github.kubatatami.richedittext.styles.multi.SizeSpanController;
 import com.github.kubatatami.richedittext.writer.Writer;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+
 public class MultiStyleTest extends BaseTest {
 
     public MultiStyleTest(Writer writer) {
@@ -62,4 +66,26 @@ public class MultiStyleTest extends BaseTest {
             checkHtml("<span style=\"font-size:" + i + ".0px;\">Normal text.</span>");
         }
     }
+
+    @Test
+    public void compactionShouldMergeTouchingAndOverlappingEqualSpans() {
+        writer.write(editText, "Red text");
+        editText.getText().setSpan(new ColorSpanController.RichForegroundColorSpan(Color.RED), 0, 3, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editText.getText().setSpan(new ColorSpanController.RichForegroundColorSpan(Color.RED), 3, 6, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editText.getText().setSpan(new ColorSpanController.RichForegroundColorSpan(Color.RED), 5, 8, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editText.setSelection(0);
+        assertEquals(2, editText.compactSpans());
+        assertEquals(1, editText.getText().getSpans(0, editText.length(), ColorSpanController.RichForegroundColorSpan.class).length);
+        checkHtml("<span style=\"color:rgb(255, 0, 0);\">Red text</span>");
+    }
+
+    @Test
+    public void compactionShouldKeepSpansWithDifferentValues() {
+        writer.write(editText, "Red blue");
+        editText.getText().setSpan(new ColorSpanController.RichForegroundColorSpan(Color.RED), 0, 4, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editText.getText().setSpan(new ColorSpanController.RichForegroundColorSpan(Color.BLUE), 4, 8, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editText.setSelection(0);
+        assertEquals(0, editText.compactSpans());
+        assertEquals(2, editText.getText().getSpans(0, editText.length(), ColorSpanController.RichForegroundColorSpan.class).length);
+    }
 }
@@ -0,0 +1,72 @@
+package com.github.kubatatami.richedittext;
+
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import com.github.kubatatami.richedittext.styles.multi.SizeSpanController;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RelayoutTest extends BaseTest {
+
+    private static final String TEXT = "First line\nSecond line\nThird line";
+
+    private final DynamicLayoutWatcher watcher = new DynamicLayoutWatcher();
+
+    public RelayoutTest(Writer writer) {
+        super(writer);
+    }
+
+    @Before
+    public void attachWatcher() {
+        editText.setText(TEXT);
+        editText.getText().setSpan(watcher, 0, TEXT.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        watcher.changes.clear();
+    }
+
+    @Test
+    public void layoutSpanShouldReflowItsParagraphOnly() {
+        editText.getText().setSpan(new SizeSpanController.RichAbsoluteSizeSpan(30, 30f), 14, 17, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        assertArrayEquals(new int[]{11, 12, 12}, watcher.changes.get(0));
+    }
+
+    @Test
+    public void batchShouldReflowTouchedParagraphsOnce() {
+        editText.runBatch(new Runnable() {
+            @Override
+            public void run() {
+                editText.getText().setSpan(new SizeSpanController.RichAbsoluteSizeSpan(30, 30f), 2, 4, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+                editText.getText().setSpan(new SizeSpanController.RichAbsoluteSizeSpan(30, 30f), 14, 17, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+                assertEquals(0, watcher.changes.size());
+            }
+        });
+        assertArrayEquals(new int[]{0, 23, 23}, watcher.changes.get(0));
+    }
+
+    private static class DynamicLayoutWatcher implements TextWatcher {
+
+        final List<int[]> changes = new ArrayList<>();
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            changes.add(new int[]{start, before, count});
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    }
+}
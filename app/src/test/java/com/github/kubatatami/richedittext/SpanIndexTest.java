@@ -0,0 +1,72 @@
+package com.github.kubatatami.richedittext;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import com.github.kubatatami.richedittext.styles.base.RichSpan;
+import com.github.kubatatami.richedittext.styles.binary.BoldSpanController;
+import com.github.kubatatami.richedittext.styles.binary.FontStyleSpanController;
+import com.github.kubatatami.richedittext.styles.binary.ItalicSpanController;
+import com.github.kubatatami.richedittext.styles.multi.ColorSpanController;
+import com.github.kubatatami.richedittext.utils.ComposingSpanFactory;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpanIndexTest extends BaseTest {
+
+    public SpanIndexTest(Writer writer) {
+        super(writer);
+    }
+
+    @Test
+    public void spanIndexShouldKeepSpannableStringBuilderOrder() {
+        editText.setText("0123456789");
+        Editable editable = editText.getText();
+        Object bold = new BoldSpanController.RichBoldSpan();
+        editable.setSpan(new ColorSpanController.RichForegroundColorSpan(Color.RED), 6, 9, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.setSpan(bold, 5, 8, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.setSpan(new ItalicSpanController.RichItalicSpan(), 0, 4, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.setSpan(new ColorSpanController.RichForegroundColorSpan(Color.BLUE), 1, 3, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.setSpan(new FontStyleSpanController.RichStyleSpan(Typeface.BOLD), 2, 6, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        checkOrder(editable);
+        editable.setSpan(bold, 0, 2, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        checkOrder(editable);
+        editable.removeSpan(bold);
+        editable.setSpan(bold, 3, 7, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        checkOrder(editable);
+    }
+
+    @Test
+    public void spanIndexShouldFollowReplacedText() {
+        editText.setText("0123456789");
+        Editable editable = editText.getText();
+        editable.setSpan(new ColorSpanController.RichForegroundColorSpan(Color.RED), 2, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        editable.setSpan(new BoldSpanController.RichBoldSpan(), 1, 6, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.setSpan(new ItalicSpanController.RichItalicSpan(), 7, 9, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.delete(2, 4);
+        checkOrder(editable);
+        SpannableStringBuilder pasted = new SpannableStringBuilder("abc");
+        pasted.setSpan(new ColorSpanController.RichForegroundColorSpan(Color.BLUE), 0, 2, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        pasted.setSpan(new FontStyleSpanController.RichStyleSpan(Typeface.ITALIC), 1, 3, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.replace(5, 7, pasted);
+        checkOrder(editable);
+        editable.clear();
+        checkOrder(editable);
+    }
+
+    private void checkOrder(Spanned text) {
+        for (Class<?> kind : new Class<?>[]{RichSpan.class, FontStyleSpanController.RichStyleSpan.class,
+                ColorSpanController.RichForegroundColorSpan.class}) {
+            assertEquals(kind.getSimpleName(), Arrays.asList(text.getSpans(0, text.length(), kind)),
+                    Arrays.asList(ComposingSpanFactory.getSpanIndex(text).getSpans(kind)));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.kubatatami.richedittext;
+
+import android.graphics.Color;
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.ScaleXSpan;
+import android.text.style.StrikethroughSpan;
+
+import com.github.kubatatami.richedittext.utils.ComposingSpanFactory;
+import com.github.kubatatami.richedittext.utils.SpanTree;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpanTreeTest extends BaseTest {
+
+    public SpanTreeTest(Writer writer) {
+        super(writer);
+    }
+
+    @Test
+    public void spanTreeShouldSkipSpansOutsidePointAndEmptyRanges() {
+        editText.setText("0123456789");
+        Editable editable = editText.getText();
+        BackgroundColorSpan outer = new BackgroundColorSpan(Color.RED);
+        editable.setSpan(outer, 0, 10, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new ForegroundColorSpan(Color.RED), 2, 2, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new RelativeSizeSpan(2), 3, 4, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        assertEquals(Collections.<Object>singleton(outer), getTreeSpans(editable, 5, 8, Object.class));
+    }
+
+    @Test
+    public void spanTreeShouldMatchSpannableStringBuilder() {
+        editText.setText("0123456789");
+        Editable editable = editText.getText();
+        editable.setSpan(new BackgroundColorSpan(Color.RED), 0, 10, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new ForegroundColorSpan(Color.RED), 2, 2, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new RelativeSizeSpan(2), 3, 4, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new ForegroundColorSpan(Color.BLUE), 5, 5, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new ScaleXSpan(2), 8, 10, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new StrikethroughSpan(), 0, 0, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        editable.setSpan(new RelativeSizeSpan(3), 4, 9, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        checkSpans(editable);
+    }
+
+    @Test
+    public void spanTreeShouldFollowChangesAfterBuild() {
+        editText.setText("0123456789");
+        Editable editable = editText.getText();
+        ForegroundColorSpan head = new ForegroundColorSpan(Color.RED);
+        editable.setSpan(head, 0, 2, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        editable.setSpan(new BackgroundColorSpan(Color.RED), 1, 3, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        editable.setSpan(new RelativeSizeSpan(2), 6, 9, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        checkSpans(editable);
+        editable.insert(5, "abc");
+        checkSpans(editable);
+        editable.setSpan(new ScaleXSpan(2), 2, 4, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        checkSpans(editable);
+        editable.setSpan(head, 1, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        checkSpans(editable);
+        editable.delete(0, 3);
+        checkSpans(editable);
+        editable.removeSpan(head);
+        checkSpans(editable);
+    }
+
+    private static void checkSpans(Spanned editable) {
+        for (Class<?> kind : new Class<?>[]{Object.class, ForegroundColorSpan.class, RelativeSizeSpan.class}) {
+            for (int start = 0; start <= editable.length(); start++) {
+                for (int end = start; end <= editable.length(); end++) {
+                    assertEquals("[" + start + ", " + end + "] " + kind.getSimpleName(),
+                            getSpans(editable, start, end, kind), getTreeSpans(editable, start, end, kind));
+                }
+            }
+        }
+    }
+
+    private static Set<Object> getSpans(Spanned text, int start, int end, Class<?> kind) {
+        Set<Object> result = new HashSet<>();
+        for (Object span : text.getSpans(start, end, kind)) {
+            if (!(span instanceof NoCopySpan)) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+
+    private static Set<Object> getTreeSpans(Spanned text, int start, int end, Class<?> kind) {
+        final Set<Object> result = new HashSet<>();
+        final int[] count = new int[1];
+        ComposingSpanFactory.getSpanTree(text).forEachSpan(start, end, kind, new SpanTree.SpanVisitor() {
+            @Override
+            public void visit(Object span) {
+                result.add(span);
+                count[0]++;
+            }
+        });
+        assertEquals(result.size(), count[0]);
+        return result;
+    }
+}
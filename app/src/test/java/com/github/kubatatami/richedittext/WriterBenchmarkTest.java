@@ -0,0 +1,69 @@
+package com.github.kubatatami.richedittext;
+
+import android.util.Log;
+
+import com.github.kubatatami.richedittext.example.TestActivity;
+import com.github.kubatatami.richedittext.writer.SuggestionWriter;
+import com.github.kubatatami.richedittext.writer.Writer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22, packageName = "com.github.kubatatami.richedittext.example")
+public class WriterBenchmarkTest {
+
+    private static final String TAG = "WriterBenchmark";
+
+    private static final String SENTENCE = "Suggestions replace the whole word on every keystroke. ";
+
+    private static final int REPEATS = 40;
+
+    private static final int WARM_UP_REPEATS = 5;
+
+    private final Writer writer = new SuggestionWriter();
+
+    private RichEditText editText;
+
+    @Before
+    public void init() {
+        ShadowLog.stream = System.out;
+        TestActivity activity = Robolectric.setupActivity(TestActivity.class);
+        activity.setLivePreview(false);
+        editText = (RichEditText) activity.findViewById(com.github.kubatatami.richedittext.example.R.id.rich_edit_text);
+    }
+
+    @Test
+    public void suggestionWriterBenchmark() {
+        write(repeat(WARM_UP_REPEATS));
+        String text = repeat(REPEATS);
+        long time = write(text);
+        Log.i(TAG, "SuggestionWriter: " + text.length() + " chars in " + time / 1000000 + " ms");
+    }
+
+    private long write(String text) {
+        editText.setText("");
+        editText.setSelection(0);
+        long startTime = System.nanoTime();
+        writer.write(editText, text);
+        long time = System.nanoTime() - startTime;
+        assertEquals(text, editText.getText().toString());
+        return time;
+    }
+
+    private static String repeat(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(SENTENCE);
+        }
+        return text.toString();
+    }
+
+}
@@ -3,11 +3,14 @@ package com.github.kubatatami.richedittext;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.os.Handler;
+import android.os.Parcelable;
 import android.support.v7.widget.AppCompatEditText;
 import android.text.Editable;
+import android.text.Spanned;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 
@@ -15,18 +18,25 @@ import com.github.kubatatami.richedittext.modules.HistoryModule;
 import com.github.kubatatami.richedittext.modules.HtmlExportModule;
 import com.github.kubatatami.richedittext.modules.HtmlImportModule;
 import com.github.kubatatami.richedittext.modules.InseparableModule;
+import com.github.kubatatami.richedittext.modules.JournalModule;
+import com.github.kubatatami.richedittext.modules.MaintenanceModule;
 import com.github.kubatatami.richedittext.modules.StyleSelectionInfo;
 import com.github.kubatatami.richedittext.other.CompatUtils;
 import com.github.kubatatami.richedittext.other.SpanUtil;
 import com.github.kubatatami.richedittext.other.TextWatcherAdapter;
 import com.github.kubatatami.richedittext.styles.base.BinarySpanController;
+import com.github.kubatatami.richedittext.styles.base.ControllerRegistry;
 import com.github.kubatatami.richedittext.styles.base.MultiSpanController;
+import com.github.kubatatami.richedittext.styles.base.RichSpan;
 import com.github.kubatatami.richedittext.styles.base.SpanController;
 import com.github.kubatatami.richedittext.styles.base.StartStyleProperty;
+import com.github.kubatatami.richedittext.utils.ChangeScheduler;
 import com.github.kubatatami.richedittext.utils.ComposingSpanFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,13 +53,17 @@ public class BaseRichEditText extends AppCompatEditText {
 
     private final HtmlExportModule htmlExportModule = new HtmlExportModule();
 
+    private final MaintenanceModule maintenanceModule = new MaintenanceModule(historyModule);
+
     private final Map<Class<?>, SpanController<?, ?>> spanControllerMap = new HashMap<>();
 
+    private final ControllerRegistry controllerRegistry = new ControllerRegistry(spanControllerMap.values());
+
     private final List<StartStyleProperty> properties = new ArrayList<>();
 
     private final List<OnFocusChangeListener> onFocusChangeListeners = new ArrayList<>();
 
-    private final List<OnValueChangeListener<Editable>> onTextChangeListeners = new ArrayList<>();
+    private final ChangeScheduler<Editable> textChangeScheduler = new ChangeScheduler<>();
 
     private final List<OnValueChangeListener<Editable>> onTextChangeDelayedListeners = new ArrayList<>();
 
@@ -63,10 +77,37 @@ public class BaseRichEditText extends AppCompatEditText {
 
     private boolean ignoreWindowFocusChange;
 
+    private int dirtyStart;
+
+    private int dirtyEnd = Integer.MAX_VALUE;
+
+    private int lastSelectionStart;
+
+    private int lastSelectionEnd;
+
+    private int batchDepth;
+
+    private boolean batchChanged;
+
+    private boolean composing;
+
+    private boolean compositionDeferred;
+
+    private int compactedSpanCount;
+
     private long onTextChangeDelayMs = DEFAULT_TEXT_CHANGE_MS;
 
     private OnFocusChangeListener onFocusChangeListener;
 
+    private final MaintenanceModule.RangeTask compactionTask = new MaintenanceModule.RangeTask() {
+        @Override
+        protected void run(Editable editable, int start, int end) {
+            if (editable == getText()) {
+                compactedSpanCount += compactSpans(start, end);
+            }
+        }
+    };
+
     private Runnable textChangeRunnable = new Runnable() {
         @Override
         public void run() {
@@ -74,7 +115,9 @@ public class BaseRichEditText extends AppCompatEditText {
         }
     };
 
-    private ComposingSpanFactory composingSpanFactory = new ComposingSpanFactory(historyModule);
+    private final JournalModule journalModule = new JournalModule(this);
+
+    private ComposingSpanFactory composingSpanFactory = new ComposingSpanFactory(historyModule, journalModule);
 
     private TextWatcher mainTextChangedListener = new TextWatcherAdapter() {
 
@@ -82,16 +125,36 @@ public class BaseRichEditText extends AppCompatEditText {
 
         @Override
         public void beforeTextChanged(CharSequence s, int start, int count, int after) {
-            historyModule.saveHistory();
-            checkBeforeChange(after > 0);
-            removed = SpanUtil.removeUnusedSpans(BaseRichEditText.this, spanControllerMap.values(), start, count, after);
+            boolean composingUpdate = ComposingSpanFactory.isComposing(s);
+            compositionDeferred = composing && composingUpdate;
+            composing = composingUpdate;
+            if (!compositionDeferred) {
+                historyModule.saveHistoryIfNeeded(s, start, count, after);
+            }
+            if (historyModule.isDuringRestoreHistoryPoint()) {
+                removed = false;
+            } else {
+                if (batchDepth == 0 && !compositionDeferred) {
+                    checkBeforeChange(after > 0);
+                }
+                removed = SpanUtil.removeUnusedSpans(BaseRichEditText.this, start, count, after);
+            }
+            historyModule.beforeTextChanged(s, start, count, after);
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            journalModule.onTextChanged(s, start, before, count);
+            historyModule.onTextChanged(s, start, before, count);
+            maintenanceModule.onTextChanged(s, start, before, count);
+            invalidateText(start, before, count);
         }
 
         @Override
         public void afterTextChanged(Editable s) {
             super.afterTextChanged(s);
             if (removed) {
-                SpanUtil.inclusiveSpans(BaseRichEditText.this, spanControllerMap.values());
+                SpanUtil.inclusiveSpans(BaseRichEditText.this);
             }
         }
     };
@@ -125,19 +188,43 @@ public class BaseRichEditText extends AppCompatEditText {
                 }
             }
         });
-        composingSpanFactory.setOnSpanChangeListeners(new OnValueChangeListener<Editable>() {
+        composingSpanFactory.setOnSpanChangeListener(new ComposingSpanFactory.OnSpanChangeListener() {
+            @Override
+            public void onSpanChange(Editable editable, int start, int end) {
+                if (editable != getText()) {
+                    return;
+                }
+                if (batchDepth > 0) {
+                    batchChanged = true;
+                } else {
+                    invokeTextListeners();
+                }
+            }
+        });
+        composingSpanFactory.setOnSpanRangeChangeListener(new ComposingSpanFactory.OnSpanRangeChangeListener() {
             @Override
-            public void onValueChange(Editable value) {
-                invokeTextListeners();
+            public void onSpanRangeChange(Editable editable, int start, int end) {
+                if (start != -1 && editable == getText() && !historyModule.isDuringNormalization()) {
+                    invalidateRange(start, end);
+                }
             }
         });
         setEditableFactory(composingSpanFactory);
     }
 
+    @Override
+    public Parcelable onSaveInstanceState() {
+        maintenanceModule.flush();
+        historyModule.saveHistory();
+        journalModule.flush();
+        return super.onSaveInstanceState();
+    }
+
     @Override
     protected void onFinishInflate() {
         super.onFinishInflate();
         addTextChangedListener(mainTextChangedListener);
+        historyModule.startTracking();
         inflateFinished = true;
     }
 
@@ -147,6 +234,14 @@ public class BaseRichEditText extends AppCompatEditText {
         if (handler == null) {
             handler = new Handler();
         }
+        if (batchDepth > 0) {
+            batchChanged = true;
+        } else {
+            notifyTextChanged();
+        }
+    }
+
+    private void notifyTextChanged() {
         invokeTextListeners();
         if (onTextChangeDelayMs >= 0) {
             handler.postDelayed(textChangeRunnable, onTextChangeDelayMs);
@@ -166,24 +261,52 @@ public class BaseRichEditText extends AppCompatEditText {
     @Override
     protected void onSelectionChanged(int selStart, int selEnd) {
         super.onSelectionChanged(selStart, selEnd);
-        checkAfterChange(passiveStatus);
+        if (!historyModule.isDuringRestoreHistoryPoint() && batchDepth == 0 && !isCompositionDeferred()) {
+            if (dirtyStart <= dirtyEnd) {
+                checkAfterChange(passiveStatus);
+            } else {
+                checkSelectionChange(passiveStatus);
+            }
+        }
+    }
+
+    @Override
+    public void onEndBatchEdit() {
+        super.onEndBatchEdit();
+        if (composing && BaseInputConnection.getComposingSpanStart(getText()) == -1) {
+            composing = false;
+            if (compositionDeferred && batchDepth == 0) {
+                compositionDeferred = false;
+                checkAfterChange(passiveStatus);
+            }
+        }
+    }
+
+    private boolean isCompositionDeferred() {
+        if (compositionDeferred && BaseInputConnection.getComposingSpanStart(getText()) == -1) {
+            compositionDeferred = false;
+        }
+        return compositionDeferred;
     }
 
     @Override
     public void setTextSize(int unit, float size) {
         super.setTextSize(unit, size);
+        ComposingSpanFactory.invalidate(getText());
         checkAfterChange(passiveStatus);
     }
 
     @Override
     public void setTextColor(int color) {
         super.setTextColor(color);
+        ComposingSpanFactory.invalidate(getText());
         checkAfterChange(passiveStatus);
     }
 
     @Override
     public void setTextColor(ColorStateList colors) {
         super.setTextColor(colors);
+        ComposingSpanFactory.invalidate(getText());
         checkAfterChange(passiveStatus);
     }
 
@@ -236,12 +359,25 @@ public class BaseRichEditText extends AppCompatEditText {
             controller.addListenersFromController(spanControllerMap.get(clazz));
         }
         spanControllerMap.put(clazz, controller);
+        controllerRegistry.invalidate();
     }
 
     public void registerProperty(StartStyleProperty property) {
         properties.add(property);
     }
 
+    public long getDocumentVersion() {
+        return ComposingSpanFactory.getVersion(getText());
+    }
+
+    public Collection<SpanController<?, ?>> getSpanControllers() {
+        return spanControllerMap.values();
+    }
+
+    public SpanController<?, ?> getController(Object span) {
+        return controllerRegistry.getController(span);
+    }
+
     @SuppressWarnings("unchecked")
     public <T extends SpanController<?, ?>> T getModule(Class<T> clazz) {
         return (T) spanControllerMap.get(clazz);
@@ -267,18 +403,165 @@ public class BaseRichEditText extends AppCompatEditText {
         return new StyleSelectionInfo(0, length(), 0, length(), true);
     }
 
+    public void beginBatch() {
+        if (batchDepth++ == 0) {
+            maintenanceModule.flush();
+            super.beginBatchEdit();
+            composingSpanFactory.beginLayoutBatch();
+            historyModule.saveHistory();
+            historyModule.beginBatch();
+        }
+    }
+
+    public void endBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("No batch to end.");
+        }
+        if (--batchDepth == 0) {
+            try {
+                historyModule.endBatch();
+                checkAfterChange(false);
+                if (composingSpanFactory.cancelSpanChanges() || batchChanged) {
+                    batchChanged = false;
+                    notifyTextChanged();
+                }
+            } finally {
+                composingSpanFactory.endLayoutBatch();
+                super.endBatchEdit();
+            }
+        }
+    }
+
+    public void runBatch(Runnable runnable) {
+        beginBatch();
+        try {
+            runnable.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    public boolean isInBatch() {
+        return batchDepth > 0;
+    }
+
     public void checkAfterChange(boolean passive) {
-        if (inflateFinished) {
+        if (inflateFinished && batchDepth == 0) {
             StyleSelectionInfo styleSelectionInfo = StyleSelectionInfo.getStyleSelectionInfo(this);
-            for (SpanController<?, ?> controller : spanControllerMap.values()) {
-                controller.checkAfterChange(this, styleSelectionInfo, passive);
+            styleSelectionInfo.dirtyStart = Math.min(Math.min(dirtyStart, lastSelectionStart), styleSelectionInfo.realSelectionStart);
+            styleSelectionInfo.dirtyEnd = Math.max(Math.max(dirtyEnd, lastSelectionEnd), styleSelectionInfo.realSelectionEnd);
+            if (!passive) {
+                dirtyStart = Integer.MAX_VALUE;
+                dirtyEnd = -1;
+            }
+            lastSelectionStart = styleSelectionInfo.realSelectionStart;
+            lastSelectionEnd = styleSelectionInfo.realSelectionEnd;
+            if (!passive) {
+                scheduleCompaction(styleSelectionInfo.dirtyStart, styleSelectionInfo.dirtyEnd);
+            }
+            historyModule.beginNormalization();
+            composingSpanFactory.beginLayoutBatch();
+            try {
+                for (SpanController<?, ?> controller : spanControllerMap.values()) {
+                    controller.checkAfterChange(this, styleSelectionInfo, passive);
+                    onControllerChecked(controller);
+                }
+            } finally {
+                composingSpanFactory.endLayoutBatch();
+                historyModule.endNormalization();
             }
+            onStyleChecked();
             if (DEBUG) {
                 SpanUtil.logSpans(getText(), spanControllerMap.values());
             }
         }
     }
 
+    protected void onControllerChecked(SpanController<?, ?> controller) {
+
+    }
+
+    protected void onStyleChecked() {
+
+    }
+
+    private void checkSelectionChange(boolean passive) {
+        if (inflateFinished) {
+            StyleSelectionInfo styleSelectionInfo = StyleSelectionInfo.getStyleSelectionInfo(this);
+            styleSelectionInfo.dirtyStart = lastSelectionStart;
+            styleSelectionInfo.dirtyEnd = lastSelectionEnd;
+            styleSelectionInfo.snapshotSpans(getText());
+            lastSelectionStart = styleSelectionInfo.realSelectionStart;
+            lastSelectionEnd = styleSelectionInfo.realSelectionEnd;
+            historyModule.beginNormalization();
+            try {
+                for (SpanController<?, ?> controller : spanControllerMap.values()) {
+                    controller.checkSelectionChange(this, styleSelectionInfo, passive);
+                    onControllerChecked(controller);
+                }
+            } finally {
+                historyModule.endNormalization();
+            }
+            onStyleChecked();
+        }
+    }
+
+    private void scheduleCompaction(int start, int end) {
+        maintenanceModule.schedule(compactionTask, getText(), start, end);
+    }
+
+    public int compactSpans() {
+        historyModule.beginNormalization();
+        int removed;
+        try {
+            removed = compactSpans(0, length());
+        } finally {
+            historyModule.endNormalization();
+        }
+        compactedSpanCount += removed;
+        return removed;
+    }
+
+    private int compactSpans(int start, int end) {
+        StyleSelectionInfo styleSelectionInfo = StyleSelectionInfo.getStyleSelectionInfo(this);
+        int removed = 0;
+        composingSpanFactory.beginLayoutBatch();
+        try {
+            for (SpanController<?, ?> controller : spanControllerMap.values()) {
+                removed += controller.compactSpans(getText(), styleSelectionInfo, start, end);
+            }
+        } finally {
+            composingSpanFactory.endLayoutBatch();
+        }
+        return removed;
+    }
+
+    public int getCompactedSpanCount() {
+        return compactedSpanCount;
+    }
+
+    private void invalidateText(int start, int before, int count) {
+        if (dirtyStart <= dirtyEnd) {
+            dirtyStart = shiftPosition(dirtyStart, start, before, count);
+            dirtyEnd = shiftPosition(dirtyEnd, start, before, count);
+        }
+        lastSelectionStart = shiftPosition(lastSelectionStart, start, before, count);
+        lastSelectionEnd = shiftPosition(lastSelectionEnd, start, before, count);
+        invalidateRange(start, start + count);
+    }
+
+    private void invalidateRange(int start, int end) {
+        dirtyStart = Math.min(dirtyStart, start);
+        dirtyEnd = Math.max(dirtyEnd, end);
+    }
+
+    private static int shiftPosition(int position, int start, int before, int count) {
+        if (position == Integer.MAX_VALUE || position <= start) {
+            return position;
+        }
+        return position >= start + before ? position + count - before : start + count;
+    }
+
     public boolean isDuringRestoreHistoryPoint() {
         return historyModule.isDuringRestoreHistoryPoint();
     }
@@ -292,25 +575,109 @@ public class BaseRichEditText extends AppCompatEditText {
     }
 
     public String getHtml(boolean standalone) {
+        maintenanceModule.flush();
         return htmlExportModule.getHtml(this, spanControllerMap.values(), properties, standalone);
     }
 
     public String getCssStyle() {
+        maintenanceModule.flush();
         return htmlExportModule.getCssStyle(this, spanControllerMap.values(), properties);
     }
 
     public void undo() {
+        maintenanceModule.flush();
         historyModule.undo();
     }
 
     public void redo() {
+        maintenanceModule.flush();
         historyModule.redo();
     }
 
+    public void scheduleMaintenance(Runnable task) {
+        maintenanceModule.schedule(task);
+    }
+
+    public void scheduleMaintenance(MaintenanceModule.RangeTask task, int start, int end) {
+        maintenanceModule.schedule(task, getText(), start, end);
+    }
+
+    public void flushMaintenance() {
+        maintenanceModule.flush();
+    }
+
+    public void setMaintenanceSliceMs(long sliceMs) {
+        maintenanceModule.setSliceMs(sliceMs);
+    }
+
     public void setHistoryLimit(int limit) {
         historyModule.setLimit(limit);
     }
 
+    public void setHistorySizeLimit(long bytes) {
+        historyModule.setSizeLimit(bytes);
+    }
+
+    public long getHistorySizeLimit() {
+        return historyModule.getSizeLimit();
+    }
+
+    public long getHistorySize() {
+        return historyModule.getSize();
+    }
+
+    public boolean setHistoryFile(File file) {
+        return historyModule.setStorageFile(file);
+    }
+
+    public boolean setHistoryFile(File file, int capacityBytes) {
+        return historyModule.setStorageFile(file, capacityBytes);
+    }
+
+    public boolean startJournal(File file) {
+        Spanned recovered = journalModule.recover(file);
+        if (recovered != null) {
+            passiveStatus = true;
+            setText(recovered);
+            passiveStatus = false;
+            checkAfterChange(false);
+        }
+        journalModule.start(file);
+        return recovered != null;
+    }
+
+    public void stopJournal() {
+        journalModule.stop();
+    }
+
+    public void flushJournal() {
+        journalModule.flush();
+    }
+
+    public int getHistoryCompressionThreshold() {
+        return historyModule.getCompressionThreshold();
+    }
+
+    public void setHistoryCompressionThreshold(int records) {
+        historyModule.setCompressionThreshold(records);
+    }
+
+    public long getHistoryCoalesceTimeout() {
+        return historyModule.getCoalesceTimeout();
+    }
+
+    public void setHistoryCoalesceTimeout(long timeoutMs) {
+        historyModule.setCoalesceTimeout(timeoutMs);
+    }
+
+    public boolean isHistoryCoalesceWords() {
+        return historyModule.isCoalesceWords();
+    }
+
+    public void setHistoryCoalesceWords(boolean coalesceWords) {
+        historyModule.setCoalesceWords(coalesceWords);
+    }
+
     public boolean isHistoryEnabled() {
         return historyModule.isEnabled();
     }
@@ -320,12 +687,13 @@ public class BaseRichEditText extends AppCompatEditText {
     }
 
     public boolean isStyled() {
-        Object[] spans = getText().getSpans(0, getText().length(), Object.class);
+        if (ComposingSpanFactory.getRichSpanCount(getText()) == 0) {
+            return false;
+        }
+        Object[] spans = getText().getSpans(0, getText().length(), RichSpan.class);
         for (Object span : spans) {
-            for (SpanController<?, ?> controller : spanControllerMap.values()) {
-                if (controller.acceptSpan(span)) {
-                    return true;
-                }
+            if (controllerRegistry.getController(span) != null) {
+                return true;
             }
         }
         return false;
@@ -336,14 +704,18 @@ public class BaseRichEditText extends AppCompatEditText {
     }
 
     void binaryClick(Class<? extends BinarySpanController<?>> clazz) {
+        historyModule.saveHistory();
         getModule(clazz).perform(getText(), getCurrentSelection());
         historyModule.saveHistory();
         checkAfterChange(true);
     }
 
     <T> void multiClick(T value, Class<? extends MultiSpanController<?, T>> clazz) {
+        historyModule.saveHistory();
         getModule(clazz).perform(value, getText(), getCurrentSelection());
         historyModule.saveHistory();
+        onControllerChecked(getModule(clazz));
+        onStyleChecked();
     }
 
     protected StyleSelectionInfo getCurrentSelection() {
@@ -361,19 +733,25 @@ public class BaseRichEditText extends AppCompatEditText {
     }
 
     protected void invokeTextChangeListeners() {
-        if (onTextChangeListeners != null) {
-            for (OnValueChangeListener<Editable> listener : onTextChangeListeners) {
-                listener.onValueChange(getText());
-            }
+        if (textChangeScheduler != null) {
+            textChangeScheduler.dispatch(getText());
         }
     }
 
     public void addOnTextChangeListener(OnValueChangeListener<Editable> onValueChangeListener) {
-        onTextChangeListeners.add(onValueChangeListener);
+        addOnTextChangeListener(onValueChangeListener, ChangeScheduler.Mode.IMMEDIATE, 0);
+    }
+
+    public void addOnTextChangeListener(OnValueChangeListener<Editable> onValueChangeListener, ChangeScheduler.Mode mode) {
+        addOnTextChangeListener(onValueChangeListener, mode, onTextChangeDelayMs);
+    }
+
+    public void addOnTextChangeListener(OnValueChangeListener<Editable> onValueChangeListener, ChangeScheduler.Mode mode, long intervalMs) {
+        textChangeScheduler.add(onValueChangeListener, mode, intervalMs);
     }
 
     public void removeOnTextChangeListener(OnValueChangeListener<Editable> onValueChangeListener) {
-        onTextChangeListeners.remove(onValueChangeListener);
+        textChangeScheduler.remove(onValueChangeListener);
     }
 
     public void addOnTextChangeDelayedListener(OnValueChangeListener<Editable> onValueChangeListener) {
@@ -476,10 +854,12 @@ public class BaseRichEditText extends AppCompatEditText {
     }
 
     public HistoryModule.HistoryPoint createHistoryPoint() {
+        maintenanceModule.flush();
         return historyModule.createHistoryPoint();
     }
 
     public void restoreHistoryPoint(HistoryModule.HistoryPoint historyPoint) {
+        maintenanceModule.flush();
         historyModule.restoreHistoryPoint(historyPoint);
     }
 
@@ -6,6 +6,7 @@ import android.util.AttributeSet;
 
 import com.github.kubatatami.richedittext.modules.StyleSelectionInfo;
 import com.github.kubatatami.richedittext.properties.LineHeight;
+import com.github.kubatatami.richedittext.styles.base.SpanController;
 import com.github.kubatatami.richedittext.styles.binary.BoldSpanController;
 import com.github.kubatatami.richedittext.styles.binary.ItalicSpanController;
 import com.github.kubatatami.richedittext.styles.binary.StrikeThroughSpanController;
@@ -19,8 +20,17 @@ import com.github.kubatatami.richedittext.styles.multi.LinkSpanController;
 import com.github.kubatatami.richedittext.styles.multi.SizeSpanController;
 import com.github.kubatatami.richedittext.styles.multi.TypefaceSpanController;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class RichEditText extends BaseRichEditText {
 
+    private final List<OnValueChangeListener<StyleState>> onStyleStateChangeListeners = new ArrayList<>();
+
+    private final StyleState.Builder styleStateBuilder = new StyleState.Builder();
+
+    private StyleState styleState;
+
     public RichEditText(Context context) {
         super(context);
         init();
@@ -68,6 +78,33 @@ public class RichEditText extends BaseRichEditText {
         registerController(StrikeThroughSpanController.class, new StrikeThroughSpanController());
     }
 
+    @Override
+    protected void onControllerChecked(SpanController<?, ?> controller) {
+        styleStateBuilder.set(controller);
+    }
+
+    @Override
+    protected void onStyleChecked() {
+        if (styleStateBuilder.isChanged()) {
+            styleState = styleStateBuilder.build();
+            for (OnValueChangeListener<StyleState> listener : onStyleStateChangeListeners) {
+                listener.onValueChange(styleState);
+            }
+        }
+    }
+
+    public StyleState getStyleState() {
+        return styleState;
+    }
+
+    public void addOnStyleStateChangeListener(OnValueChangeListener<StyleState> onStyleStateChangeListener) {
+        onStyleStateChangeListeners.add(onStyleStateChangeListener);
+    }
+
+    public void removeOnStyleStateChangeListener(OnValueChangeListener<StyleState> onStyleStateChangeListener) {
+        onStyleStateChangeListeners.remove(onStyleStateChangeListener);
+    }
+
     public void boldClick() {
         binaryClick(BoldSpanController.class);
     }
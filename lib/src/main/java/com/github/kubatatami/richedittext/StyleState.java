@@ -0,0 +1,176 @@
+package com.github.kubatatami.richedittext;
+
+import android.text.Layout;
+
+import com.github.kubatatami.richedittext.styles.base.SpanController;
+import com.github.kubatatami.richedittext.styles.binary.BoldSpanController;
+import com.github.kubatatami.richedittext.styles.binary.ItalicSpanController;
+import com.github.kubatatami.richedittext.styles.binary.StrikeThroughSpanController;
+import com.github.kubatatami.richedittext.styles.binary.UnderlineSpanController;
+import com.github.kubatatami.richedittext.styles.line.AlignmentSpanController;
+import com.github.kubatatami.richedittext.styles.list.BulletListController;
+import com.github.kubatatami.richedittext.styles.list.NumberListController;
+import com.github.kubatatami.richedittext.styles.multi.BackgroundColorSpanController;
+import com.github.kubatatami.richedittext.styles.multi.ColorSpanController;
+import com.github.kubatatami.richedittext.styles.multi.LinkSpanController;
+import com.github.kubatatami.richedittext.styles.multi.SizeSpanController;
+import com.github.kubatatami.richedittext.styles.multi.TypefaceSpanController;
+
+public class StyleState {
+
+    public final boolean bold;
+
+    public final boolean italic;
+
+    public final boolean underline;
+
+    public final boolean strikeThrough;
+
+    public final Float size;
+
+    public final Integer color;
+
+    public final Integer backgroundColor;
+
+    public final Layout.Alignment alignment;
+
+    public final boolean numberList;
+
+    public final boolean bulletList;
+
+    public final LinkSpanController.Link link;
+
+    public final TypefaceSpanController.Font typeface;
+
+    public StyleState(boolean bold, boolean italic, boolean underline, boolean strikeThrough, Float size, Integer color,
+                      Integer backgroundColor, Layout.Alignment alignment, boolean numberList, boolean bulletList,
+                      LinkSpanController.Link link, TypefaceSpanController.Font typeface) {
+        this.bold = bold;
+        this.italic = italic;
+        this.underline = underline;
+        this.strikeThrough = strikeThrough;
+        this.size = size;
+        this.color = color;
+        this.backgroundColor = backgroundColor;
+        this.alignment = alignment;
+        this.numberList = numberList;
+        this.bulletList = bulletList;
+        this.link = link;
+        this.typeface = typeface;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StyleState)) {
+            return false;
+        }
+        StyleState that = (StyleState) o;
+        return bold == that.bold && italic == that.italic && underline == that.underline
+                && strikeThrough == that.strikeThrough && numberList == that.numberList && bulletList == that.bulletList
+                && equals(size, that.size) && equals(color, that.color) && equals(backgroundColor, that.backgroundColor)
+                && alignment == that.alignment && equals(link, that.link) && equals(typeface, that.typeface);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (bold ? 1 : 0);
+        result = 31 * result + (italic ? 1 : 0);
+        result = 31 * result + (underline ? 1 : 0);
+        result = 31 * result + (strikeThrough ? 1 : 0);
+        result = 31 * result + (size != null ? size.hashCode() : 0);
+        result = 31 * result + (color != null ? color.hashCode() : 0);
+        result = 31 * result + (backgroundColor != null ? backgroundColor.hashCode() : 0);
+        result = 31 * result + (alignment != null ? alignment.hashCode() : 0);
+        result = 31 * result + (numberList ? 1 : 0);
+        result = 31 * result + (bulletList ? 1 : 0);
+        result = 31 * result + (link != null ? link.hashCode() : 0);
+        result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static class Builder {
+
+        private boolean bold;
+
+        private boolean italic;
+
+        private boolean underline;
+
+        private boolean strikeThrough;
+
+        private Float size;
+
+        private Integer color;
+
+        private Integer backgroundColor;
+
+        private Layout.Alignment alignment;
+
+        private boolean numberList;
+
+        private boolean bulletList;
+
+        private LinkSpanController.Link link;
+
+        private TypefaceSpanController.Font typeface;
+
+        private boolean changed = true;
+
+        void set(SpanController<?, ?> controller) {
+            Object value = controller.getValue();
+            if (controller instanceof BoldSpanController) {
+                bold = updateFlag(bold, value);
+            } else if (controller instanceof ItalicSpanController) {
+                italic = updateFlag(italic, value);
+            } else if (controller instanceof UnderlineSpanController) {
+                underline = updateFlag(underline, value);
+            } else if (controller instanceof StrikeThroughSpanController) {
+                strikeThrough = updateFlag(strikeThrough, value);
+            } else if (controller instanceof SizeSpanController) {
+                size = updateValue(size, (Float) value);
+            } else if (controller instanceof ColorSpanController) {
+                color = updateValue(color, (Integer) value);
+            } else if (controller instanceof BackgroundColorSpanController) {
+                backgroundColor = updateValue(backgroundColor, (Integer) value);
+            } else if (controller instanceof AlignmentSpanController) {
+                alignment = updateValue(alignment, (Layout.Alignment) value);
+            } else if (controller instanceof NumberListController) {
+                numberList = updateFlag(numberList, value);
+            } else if (controller instanceof BulletListController) {
+                bulletList = updateFlag(bulletList, value);
+            } else if (controller instanceof LinkSpanController) {
+                link = updateValue(link, (LinkSpanController.Link) value);
+            } else if (controller instanceof TypefaceSpanController) {
+                typeface = updateValue(typeface, (TypefaceSpanController.Font) value);
+            }
+        }
+
+        boolean isChanged() {
+            return changed;
+        }
+
+        StyleState build() {
+            changed = false;
+            return new StyleState(bold, italic, underline, strikeThrough, size, color, backgroundColor, alignment,
+                    numberList, bulletList, link, typeface);
+        }
+
+        private boolean updateFlag(boolean current, Object value) {
+            boolean newValue = Boolean.TRUE.equals(value);
+            changed |= newValue != current;
+            return newValue;
+        }
+
+        private <V> V updateValue(V current, V value) {
+            changed |= !StyleState.equals(current, value);
+            return value;
+        }
+    }
+}
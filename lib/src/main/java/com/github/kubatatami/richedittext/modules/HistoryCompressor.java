@@ -0,0 +1,187 @@
+package com.github.kubatatami.richedittext.modules;
+
+import com.github.kubatatami.richedittext.modules.HistoryRecord.Operation;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.SpanOperation;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.SpanState;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.TextOperation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+class HistoryCompressor {
+
+    private static final int TEXT_OPERATION = 0;
+
+    private static final int SPAN_OPERATION = 1;
+
+    private HistoryCompressor() {
+    }
+
+    static Compressed compress(List<Operation> operations) {
+        return compress(operations, new ArrayList<Object>());
+    }
+
+    static List<Object> collectSpans(List<Operation> operations) {
+        Map<Object, Integer> spanIndexes = new IdentityHashMap<>();
+        List<Object> spans = new ArrayList<>();
+        for (Operation operation : operations) {
+            if (operation instanceof TextOperation) {
+                TextOperation textOperation = (TextOperation) operation;
+                for (SpanState state : textOperation.spansBefore) {
+                    getSpanIndex(state.span, spanIndexes, spans);
+                }
+                for (SpanState state : textOperation.spansAfter) {
+                    getSpanIndex(state.span, spanIndexes, spans);
+                }
+            } else {
+                getSpanIndex(((SpanOperation) operation).span, spanIndexes, spans);
+            }
+        }
+        return spans;
+    }
+
+    static Compressed compress(List<Operation> operations, List<Object> spans) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater));
+            Map<Object, Integer> spanIndexes = new IdentityHashMap<>();
+            for (int i = 0; i < spans.size(); i++) {
+                spanIndexes.put(spans.get(i), i);
+            }
+            out.writeInt(operations.size());
+            for (Operation operation : operations) {
+                if (operation instanceof TextOperation) {
+                    TextOperation textOperation = (TextOperation) operation;
+                    out.writeByte(TEXT_OPERATION);
+                    out.writeInt(textOperation.start);
+                    writeString(out, textOperation.removed);
+                    writeString(out, textOperation.added);
+                    writeStates(out, textOperation.spansBefore, spanIndexes, spans);
+                    writeStates(out, textOperation.spansAfter, spanIndexes, spans);
+                } else {
+                    SpanOperation spanOperation = (SpanOperation) operation;
+                    out.writeByte(SPAN_OPERATION);
+                    out.writeInt(getSpanIndex(spanOperation.span, spanIndexes, spans));
+                    writeState(out, spanOperation.before, spanIndexes, spans);
+                    writeState(out, spanOperation.after, spanIndexes, spans);
+                }
+            }
+            out.close();
+            return new Compressed(bytes.toByteArray(), spans.toArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static List<Operation> decompress(Compressed compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed.data), inflater));
+            int count = in.readInt();
+            List<Operation> operations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (in.readByte() == TEXT_OPERATION) {
+                    int start = in.readInt();
+                    String removed = readString(in);
+                    String added = readString(in);
+                    SpanState[] spansBefore = readStates(in, compressed.spans);
+                    SpanState[] spansAfter = readStates(in, compressed.spans);
+                    operations.add(new TextOperation(start, removed, added, spansBefore, spansAfter));
+                } else {
+                    Object span = compressed.spans[in.readInt()];
+                    SpanState before = readState(in, compressed.spans);
+                    SpanState after = readState(in, compressed.spans);
+                    operations.add(new SpanOperation(span, before, after));
+                }
+            }
+            return operations;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        out.writeInt(text.length());
+        out.writeChars(text);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        char[] chars = new char[in.readInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    private static void writeStates(DataOutputStream out, SpanState[] states, Map<Object, Integer> spanIndexes, List<Object> spans) throws IOException {
+        out.writeInt(states.length);
+        for (SpanState state : states) {
+            writeState(out, state, spanIndexes, spans);
+        }
+    }
+
+    private static SpanState[] readStates(DataInputStream in, Object[] spans) throws IOException {
+        SpanState[] states = new SpanState[in.readInt()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = readState(in, spans);
+        }
+        return states;
+    }
+
+    private static void writeState(DataOutputStream out, SpanState state, Map<Object, Integer> spanIndexes, List<Object> spans) throws IOException {
+        if (state == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(getSpanIndex(state.span, spanIndexes, spans));
+            out.writeInt(state.start);
+            out.writeInt(state.end);
+            out.writeInt(state.flags);
+        }
+    }
+
+    private static SpanState readState(DataInputStream in, Object[] spans) throws IOException {
+        int index = in.readInt();
+        if (index == -1) {
+            return null;
+        }
+        return new SpanState(spans[index], in.readInt(), in.readInt(), in.readInt());
+    }
+
+    private static int getSpanIndex(Object span, Map<Object, Integer> spanIndexes, List<Object> spans) {
+        Integer index = spanIndexes.get(span);
+        if (index == null) {
+            index = spans.size();
+            spanIndexes.put(span, index);
+            spans.add(span);
+        }
+        return index;
+    }
+
+    static class Compressed {
+
+        final byte[] data;
+
+        final Object[] spans;
+
+        Compressed(byte[] data, Object[] spans) {
+            this.data = data;
+            this.spans = spans;
+        }
+    }
+}
@@ -1,45 +1,236 @@
 package com.github.kubatatami.richedittext.modules;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
 import android.text.SpannableStringBuilder;
-import android.widget.TextView;
+import android.text.Spanned;
+import android.text.TextWatcher;
 
 import com.github.kubatatami.richedittext.BaseRichEditText;
-
+import com.github.kubatatami.richedittext.modules.HistoryRecord.SpanOperation;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.SpanState;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.TextOperation;
+import com.github.kubatatami.richedittext.styles.base.RichSpan;
+import com.github.kubatatami.richedittext.styles.list.BottomMarginSpan;
+import com.github.kubatatami.richedittext.styles.list.ListItemSpan;
+import com.github.kubatatami.richedittext.styles.list.TopMarginSpan;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class HistoryModule {
 
+    private static final long DEFAULT_COALESCE_TIMEOUT_MS = 2000;
+
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 20;
+
+    private static final int DEFAULT_STORAGE_CAPACITY = 4 * 1024 * 1024;
+
+    private static final Executor historyExecutor = Executors.newSingleThreadExecutor();
+
+    private static final int EDIT_NONE = 0;
+
+    private static final int EDIT_INSERT = 1;
+
+    private static final int EDIT_DELETE = 2;
+
+    private static final int EDIT_REPLACE = 3;
+
     private final BaseRichEditText richEditText;
 
-    private final LimitedQueue<HistoryPoint> undoList = new LimitedQueue<>(Integer.MAX_VALUE);
+    private final LimitedQueue undoList = new LimitedQueue(Integer.MAX_VALUE);
 
-    private final LimitedQueue<HistoryPoint> redoList = new LimitedQueue<>(Integer.MAX_VALUE);
+    private final LimitedQueue redoList = new LimitedQueue(Integer.MAX_VALUE);
+
+    private final LinkedList<PendingText> pendingTexts = new LinkedList<>();
 
     private final List<OnHistoryChangeListener> onHistoryChangeListeners = new ArrayList<>();
 
-    private boolean ignoreHistory = false;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private HistoryRecord currentRecord = new HistoryRecord();
 
     private boolean enabled = true;
 
+    private boolean tracking = false;
+
+    private boolean applying = false;
+
     private boolean isDuringRestore = false;
 
+    private int normalizationDepth = 0;
+
+    private int batchDepth = 0;
+
+    private long sizeLimit = Long.MAX_VALUE;
+
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    private HistoryStore store;
+
+    private final TextChecksum checksum = new TextChecksum();
+
+    private long coalesceTimeoutMs = DEFAULT_COALESCE_TIMEOUT_MS;
+
+    private boolean coalesceWords = true;
+
+    private int lastEditType = EDIT_NONE;
+
+    private int lastEditStart;
+
+    private int lastEditEnd;
+
+    private long lastEditTime;
+
+    private boolean lastEditWhitespace;
+
     public HistoryModule(BaseRichEditText richEditText) {
         this.richEditText = richEditText;
     }
 
+    public void startTracking() {
+        tracking = true;
+    }
+
     public void saveHistory() {
-        if (enabled) {
-            if (!ignoreHistory) {
-                redoList.clear();
-                undoList.addFirst(createHistoryPoint());
-                checkHistory();
-            } else {
-                ignoreHistory = false;
+        if (batchDepth > 0) {
+            return;
+        }
+        if (!currentRecord.isEmpty()) {
+            currentRecord.selectionStartAfter = richEditText.getSelectionStart();
+            currentRecord.selectionEndAfter = richEditText.getSelectionEnd();
+            if (currentRecord.isSignificant()) {
+                undoList.addFirst(currentRecord);
+                if (undoList.size() > compressionThreshold) {
+                    compress(undoList.get(compressionThreshold));
+                }
+            } else if (!undoList.isEmpty()) {
+                if (store != null) {
+                    store.invalidate(undoList.peekFirst());
+                }
+                undoList.appendFirst(currentRecord);
+            }
+            currentRecord = new HistoryRecord();
+            persist();
+        }
+        lastEditType = EDIT_NONE;
+    }
+
+    public void saveHistoryIfNeeded(CharSequence s, int start, int count, int after) {
+        if (batchDepth > 0) {
+            return;
+        }
+        int editType = after > count ? EDIT_INSERT : after == 0 ? EDIT_DELETE : EDIT_REPLACE;
+        boolean whitespace = editType == EDIT_DELETE && count > 0 && Character.isWhitespace(s.charAt(start));
+        long now = SystemClock.uptimeMillis();
+        if (!canCoalesce(s, editType, start, count, whitespace, now)) {
+            saveHistory();
+        }
+        lastEditType = editType;
+        lastEditStart = start;
+        lastEditEnd = start + after;
+        lastEditTime = now;
+        lastEditWhitespace = whitespace;
+    }
+
+    private boolean canCoalesce(CharSequence s, int editType, int start, int count, boolean whitespace, long now) {
+        if (!currentRecord.isSignificant() || editType == EDIT_REPLACE || editType != lastEditType
+                || now - lastEditTime >= coalesceTimeoutMs) {
+            return false;
+        }
+        if (editType == EDIT_INSERT) {
+            if (count > 0) {
+                return start == lastEditStart && start + count == lastEditEnd;
             }
+            return start == lastEditEnd && !(coalesceWords && start > 0 && Character.isWhitespace(s.charAt(start - 1)));
+        }
+        return (start + count == lastEditStart || start == lastEditStart) && !(coalesceWords && whitespace && !lastEditWhitespace);
+    }
+
+    public long getCoalesceTimeout() {
+        return coalesceTimeoutMs;
+    }
+
+    public void setCoalesceTimeout(long coalesceTimeoutMs) {
+        this.coalesceTimeoutMs = coalesceTimeoutMs;
+    }
+
+    public boolean isCoalesceWords() {
+        return coalesceWords;
+    }
+
+    public void setCoalesceWords(boolean coalesceWords) {
+        this.coalesceWords = coalesceWords;
+    }
+
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        if (store != null) {
+            checksum.remove(s, start, start + count);
+        }
+        if (isRecording() && s instanceof Spanned) {
+            pendingTexts.addFirst(new PendingText(start, s.subSequence(start, start + count).toString(),
+                    getSpanStates((Spanned) s, start, start + count)));
+        }
+    }
+
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (store != null) {
+            checksum.add(s, start, start + count);
+        }
+        if (!pendingTexts.isEmpty()) {
+            PendingText pendingText = pendingTexts.removeFirst();
+            if (isRecording() && s instanceof Spanned && (before > 0 || count > 0)) {
+                record(new TextOperation(pendingText.start, pendingText.removed, s.subSequence(start, start + count).toString(),
+                        pendingText.spans, getSpanStates((Spanned) s, start, start + count)), true);
+            }
+        }
+    }
+
+    public boolean isTracking(Spanned text, Object span) {
+        return isRecording() && text == richEditText.getText() && isHistorySpan(span);
+    }
+
+    public void onSpanChanged(Spanned text, Object span, int oldStart, int oldEnd, int oldFlags) {
+        SpanState before = oldStart == -1 ? null : new SpanState(span, oldStart, oldEnd, oldFlags);
+        SpanState after = SpanState.of(text, span);
+        if (before == null ? after != null : !before.equalsState(after)) {
+            record(new SpanOperation(span, before, after), normalizationDepth == 0);
+        }
+    }
+
+    public void beginNormalization() {
+        normalizationDepth++;
+    }
+
+    public void endNormalization() {
+        normalizationDepth--;
+    }
+
+    public boolean isDuringNormalization() {
+        return normalizationDepth > 0;
+    }
+
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    public void endBatch() {
+        if (batchDepth > 0) {
+            batchDepth--;
+            saveHistory();
         }
     }
 
@@ -55,6 +246,9 @@ public class HistoryModule {
 
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
     }
 
     public void setLimit(int limit) {
@@ -62,30 +256,268 @@ public class HistoryModule {
         redoList.setLimit(limit);
     }
 
+    public long getSizeLimit() {
+        return sizeLimit;
+    }
+
+    public void setSizeLimit(long sizeLimit) {
+        this.sizeLimit = sizeLimit;
+        trimToSize();
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = Math.max(compressionThreshold, 1);
+        if (undoList.size() > this.compressionThreshold) {
+            for (Iterator<HistoryRecord> iterator = undoList.listIterator(this.compressionThreshold); iterator.hasNext(); ) {
+                compress(iterator.next());
+            }
+        }
+    }
+
+    private void compress(final HistoryRecord record) {
+        if (record.isCompressed()) {
+            return;
+        }
+        final int version = record.getVersion();
+        final List<HistoryRecord.Operation> operations = record.getOperations();
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final HistoryCompressor.Compressed compressed = HistoryCompressor.compress(operations);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (record.getVersion() == version && undoList.compress(record, compressed)) {
+                            trimToSize();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public boolean setStorageFile(File file) {
+        return setStorageFile(file, DEFAULT_STORAGE_CAPACITY);
+    }
+
+    public boolean setStorageFile(File file, int capacity) {
+        saveHistory();
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+        if (file == null) {
+            return false;
+        }
+        try {
+            store = new HistoryStore(richEditText, file, capacity, historyExecutor);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        checksum.reset(richEditText.getText());
+        HistoryStore.Loaded loaded = store.load(richEditText.getText(), checksum.getValue());
+        if (loaded != null) {
+            undoList.clear();
+            redoList.clear();
+            for (int i = loaded.undo.size() - 1; i >= 0; i--) {
+                undoList.addFirst(loaded.undo.get(i));
+            }
+            for (int i = loaded.redo.size() - 1; i >= 0; i--) {
+                redoList.addFirst(loaded.redo.get(i));
+            }
+            setCompressionThreshold(compressionThreshold);
+            trimToSize();
+            checkHistory();
+        }
+        persist();
+        return loaded != null;
+    }
+
+    public long getSize() {
+        return undoList.getSize() + redoList.getSize() + currentRecord.getSize();
+    }
+
     public void undo() {
-        HistoryPoint historyPoint = undoList.pollFirst();
-        if (historyPoint != null) {
-            redoList.addFirst(createHistoryPoint());
-            restoreHistoryPoint(historyPoint);
+        saveHistory();
+        HistoryRecord record = undoList.pollFirst();
+        if (record != null) {
+            apply(record, true);
+            redoList.addFirst(record);
+            checkHistory();
+            persist();
+            richEditText.checkAfterChange(true);
         }
     }
 
     public void redo() {
-        HistoryPoint historyPoint = redoList.pollFirst();
-        if (historyPoint != null) {
-            undoList.addFirst(createHistoryPoint());
-            restoreHistoryPoint(historyPoint);
+        saveHistory();
+        HistoryRecord record = redoList.pollFirst();
+        if (record != null) {
+            apply(record, false);
+            undoList.addFirst(record);
+            checkHistory();
+            persist();
+            richEditText.checkAfterChange(true);
+        }
+    }
+
+    private void apply(HistoryRecord record, boolean undo) {
+        isDuringRestore = true;
+        applying = true;
+        try {
+            Editable editable = richEditText.getEditableText();
+            if (undo) {
+                record.undo(editable);
+                setSelection(record.selectionStartBefore, record.selectionEndBefore);
+            } else {
+                record.redo(editable);
+                setSelection(record.selectionStartAfter, record.selectionEndAfter);
+            }
+        } finally {
+            applying = false;
+            isDuringRestore = false;
         }
     }
 
     public void restoreHistoryPoint(HistoryPoint historyPoint) {
+        saveHistory();
         isDuringRestore = true;
-        ignoreHistory = true;
-        richEditText.setText(historyPoint.editable, TextView.BufferType.EDITABLE);
-        setSelection(historyPoint.selectionStart, historyPoint.selectionEnd);
-        checkHistory();
+        try {
+            Editable editable = richEditText.getEditableText();
+            replaceChangedText(editable, historyPoint.editable);
+            replaceChangedSpans(editable, historyPoint.editable);
+            setSelection(historyPoint.selectionStart, historyPoint.selectionEnd);
+        } finally {
+            isDuringRestore = false;
+        }
+        saveHistory();
         richEditText.checkAfterChange(true);
-        isDuringRestore = false;
+    }
+
+    private void replaceChangedText(Editable editable, CharSequence target) {
+        int length = editable.length();
+        int targetLength = target.length();
+        int prefix = 0;
+        int maxPrefix = Math.min(length, targetLength);
+        while (prefix < maxPrefix && editable.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix && editable.charAt(length - suffix - 1) == target.charAt(targetLength - suffix - 1)) {
+            suffix++;
+        }
+        if (prefix < length || prefix < targetLength) {
+            editable.replace(prefix, length - suffix, target.subSequence(prefix, targetLength - suffix).toString());
+        }
+    }
+
+    private void replaceChangedSpans(Editable editable, Spanned target) {
+        Map<Object, SpanState> targetStates = new IdentityHashMap<>();
+        for (Object span : target.getSpans(0, target.length(), Object.class)) {
+            if (isHistorySpan(span)) {
+                targetStates.put(span, SpanState.of(target, span));
+            }
+        }
+        for (Object span : editable.getSpans(0, editable.length(), Object.class)) {
+            if (isHistorySpan(span)) {
+                SpanState state = targetStates.get(span);
+                if (state == null) {
+                    editable.removeSpan(span);
+                } else if (state.equalsState(SpanState.of(editable, span))) {
+                    targetStates.remove(span);
+                }
+            }
+        }
+        for (SpanState state : targetStates.values()) {
+            state.apply(editable);
+        }
+    }
+
+    private void record(HistoryRecord.Operation operation, boolean significant) {
+        if (currentRecord.isEmpty()) {
+            currentRecord.selectionStartBefore = richEditText.getSelectionStart();
+            currentRecord.selectionEndBefore = richEditText.getSelectionEnd();
+        }
+        boolean wasSignificant = currentRecord.isSignificant();
+        currentRecord.add(operation, significant);
+        if (significant && !wasSignificant) {
+            redoList.clear();
+            checkHistory();
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        boolean trimmed = false;
+        while (getSize() > sizeLimit && !undoList.isEmpty()) {
+            undoList.removeLast();
+            trimmed = true;
+        }
+        while (getSize() > sizeLimit && !redoList.isEmpty()) {
+            redoList.removeLast();
+            trimmed = true;
+        }
+        if (trimmed) {
+            checkHistory();
+            persist();
+        }
+    }
+
+    private void clear() {
+        undoList.clear();
+        redoList.clear();
+        pendingTexts.clear();
+        currentRecord = new HistoryRecord();
+        checkHistory();
+        persist();
+    }
+
+    private void persist() {
+        if (store != null && currentRecord.isEmpty()) {
+            store.sync(undoList, redoList, richEditText.getText().length(), checksum.getValue());
+        }
+    }
+
+    private boolean isRecording() {
+        return enabled && tracking && !applying;
+    }
+
+    private SpanState[] getSpanStates(Spanned text, int start, int end) {
+        List<SpanState> result = new ArrayList<>();
+        for (Object span : text.getSpans(start, end, Object.class)) {
+            addSpanState(result, text, span);
+        }
+        if (start != end) {
+            for (Object span : text.getSpans(start, start, Object.class)) {
+                if (text.getSpanEnd(span) == start && text.getSpanStart(span) != start) {
+                    addSpanState(result, text, span);
+                }
+            }
+            for (Object span : text.getSpans(end, end, Object.class)) {
+                if (text.getSpanStart(span) == end && text.getSpanEnd(span) != end) {
+                    addSpanState(result, text, span);
+                }
+            }
+        }
+        return result.toArray(new SpanState[result.size()]);
+    }
+
+    private void addSpanState(List<SpanState> result, Spanned text, Object span) {
+        if (isHistorySpan(span)) {
+            result.add(SpanState.of(text, span));
+        }
+    }
+
+    static boolean isHistorySpan(Object span) {
+        return (span instanceof RichSpan || span instanceof InseparableModule.Inseparable)
+                && !(span instanceof NoCopySpan || span instanceof TextWatcher || span instanceof SpanWatcher)
+                && !(span instanceof ListItemSpan || span instanceof TopMarginSpan || span instanceof BottomMarginSpan);
     }
 
     private void setSelection(int selStart, int selEnd) {
@@ -96,15 +528,19 @@ public class HistoryModule {
         return Math.max(Math.min(selectionIndex, richEditText.length()), 0);
     }
 
+    private int getUndoSteps() {
+        return undoList.size() + (currentRecord.isSignificant() ? 1 : 0);
+    }
+
     private void checkHistory() {
         for (OnHistoryChangeListener onHistoryChangeListener : onHistoryChangeListeners) {
-            onHistoryChangeListener.onHistoryChange(undoList.size(), redoList.size());
+            onHistoryChangeListener.onHistoryChange(getUndoSteps(), redoList.size());
         }
     }
 
     public void addOnHistoryChangeListener(OnHistoryChangeListener onHistoryChangeListener) {
         onHistoryChangeListeners.add(onHistoryChangeListener);
-        onHistoryChangeListener.onHistoryChange(undoList.size(), redoList.size());
+        onHistoryChangeListener.onHistoryChange(getUndoSteps(), redoList.size());
     }
 
     public void removeOnHistoryChangeListener(OnHistoryChangeListener onHistoryChangeListener) {
@@ -155,22 +591,83 @@ public class HistoryModule {
         }
     }
 
-    private static class LimitedQueue<E> extends LinkedList<E> {
+    private static class PendingText {
+
+        final int start;
+
+        final String removed;
+
+        final SpanState[] spans;
+
+        PendingText(int start, String removed, SpanState[] spans) {
+            this.start = start;
+            this.removed = removed;
+            this.spans = spans;
+        }
+    }
+
+    private static class LimitedQueue extends LinkedList<HistoryRecord> {
 
         private int limit;
 
+        private long size;
+
         LimitedQueue(int limit) {
             this.limit = limit;
         }
 
         @Override
-        public void addFirst(E o) {
-            super.addFirst(o);
+        public void addFirst(HistoryRecord record) {
+            super.addFirst(record);
+            size += record.getSize();
             while (size() > limit) {
-                super.removeLast();
+                removeLast();
             }
         }
 
+        @Override
+        public HistoryRecord pollFirst() {
+            HistoryRecord record = super.pollFirst();
+            if (record != null) {
+                size -= record.getSize();
+            }
+            return record;
+        }
+
+        @Override
+        public HistoryRecord removeLast() {
+            HistoryRecord record = super.removeLast();
+            size -= record.getSize();
+            return record;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            size = 0;
+        }
+
+        boolean compress(HistoryRecord record, HistoryCompressor.Compressed compressed) {
+            if (!contains(record)) {
+                return false;
+            }
+            size -= record.getSize();
+            record.setCompressed(compressed);
+            size += record.getSize();
+            return true;
+        }
+
+        void appendFirst(HistoryRecord record) {
+            HistoryRecord first = peekFirst();
+            size -= first.getSize();
+            first.append(record);
+            size += first.getSize();
+        }
+
+        long getSize() {
+            return size;
+        }
+
         void setLimit(int limit) {
             this.limit = limit;
         }
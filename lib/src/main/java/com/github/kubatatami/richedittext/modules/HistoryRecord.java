@@ -0,0 +1,273 @@
+package com.github.kubatatami.richedittext.modules;
+
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.Spanned;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class HistoryRecord {
+
+    private static final int OBJECT_SIZE = 16;
+
+    private static final int REFERENCE_SIZE = 4;
+
+    private static final int INT_SIZE = 4;
+
+    private static final int CHAR_SIZE = 2;
+
+    private static final int RECORD_SIZE = OBJECT_SIZE + 3 * REFERENCE_SIZE + 10 * INT_SIZE + OBJECT_SIZE;
+
+    private List<Operation> operations = new ArrayList<>();
+
+    private HistoryCompressor.Compressed compressed;
+
+    private boolean significant;
+
+    private long size = RECORD_SIZE;
+
+    private long uncompressedSize;
+
+    private int version;
+
+    int selectionStartBefore;
+
+    int selectionEndBefore;
+
+    int selectionStartAfter;
+
+    int selectionEndAfter;
+
+    boolean isEmpty() {
+        return compressed == null && operations.isEmpty();
+    }
+
+    boolean isCompressed() {
+        return compressed != null;
+    }
+
+    HistoryCompressor.Compressed getCompressed() {
+        return compressed;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    List<Operation> getOperations() {
+        if (compressed != null) {
+            return HistoryCompressor.decompress(compressed);
+        }
+        return new ArrayList<>(operations);
+    }
+
+    boolean isSignificant() {
+        return significant;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    void add(Operation operation, boolean significant) {
+        decompress();
+        operations.add(operation);
+        this.significant |= significant;
+        size += operation.getSize() + REFERENCE_SIZE;
+    }
+
+    void append(HistoryRecord record) {
+        decompress();
+        record.decompress();
+        operations.addAll(record.operations);
+        significant |= record.significant;
+        size += record.size - RECORD_SIZE;
+    }
+
+    void undo(Editable editable) {
+        decompress();
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            operations.get(i).undo(editable);
+        }
+    }
+
+    void redo(Editable editable) {
+        decompress();
+        for (Operation operation : operations) {
+            operation.redo(editable);
+        }
+    }
+
+    void setCompressed(HistoryCompressor.Compressed compressed) {
+        this.compressed = compressed;
+        operations = null;
+        uncompressedSize = size;
+        size = RECORD_SIZE + OBJECT_SIZE + 2 * REFERENCE_SIZE
+                + OBJECT_SIZE + INT_SIZE + compressed.data.length
+                + OBJECT_SIZE + INT_SIZE + (long) compressed.spans.length * REFERENCE_SIZE;
+        version++;
+    }
+
+    private void decompress() {
+        if (compressed != null) {
+            operations = HistoryCompressor.decompress(compressed);
+            compressed = null;
+            size = uncompressedSize;
+        }
+        version++;
+    }
+
+    static abstract class Operation {
+
+        abstract void undo(Editable editable);
+
+        abstract void redo(Editable editable);
+
+        abstract long getSize();
+    }
+
+    static class TextOperation extends Operation {
+
+        final int start;
+
+        final String removed;
+
+        final String added;
+
+        final SpanState[] spansBefore;
+
+        final SpanState[] spansAfter;
+
+        TextOperation(int start, String removed, String added, SpanState[] spansBefore, SpanState[] spansAfter) {
+            this.start = start;
+            this.removed = removed;
+            this.added = added;
+            this.spansBefore = spansBefore;
+            this.spansAfter = spansAfter;
+        }
+
+        @Override
+        long getSize() {
+            return OBJECT_SIZE + INT_SIZE + 4 * REFERENCE_SIZE
+                    + getStringSize(removed) + getStringSize(added)
+                    + getStatesSize(spansBefore) + getStatesSize(spansAfter);
+        }
+
+        @Override
+        void undo(Editable editable) {
+            editable.replace(start, start + added.length(), removed);
+            restoreSpans(editable, spansAfter, spansBefore);
+        }
+
+        @Override
+        void redo(Editable editable) {
+            editable.replace(start, start + removed.length(), added);
+            restoreSpans(editable, spansBefore, spansAfter);
+        }
+
+        private static void restoreSpans(Spannable text, SpanState[] oldStates, SpanState[] newStates) {
+            for (SpanState oldState : oldStates) {
+                if (!SpanState.contains(newStates, oldState.span)) {
+                    text.removeSpan(oldState.span);
+                }
+            }
+            for (SpanState newState : newStates) {
+                newState.apply(text);
+            }
+        }
+    }
+
+    static class SpanOperation extends Operation {
+
+        final Object span;
+
+        final SpanState before;
+
+        final SpanState after;
+
+        SpanOperation(Object span, SpanState before, SpanState after) {
+            this.span = span;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        long getSize() {
+            return OBJECT_SIZE + 3 * REFERENCE_SIZE
+                    + (before != null ? SpanState.SIZE : 0) + (after != null ? SpanState.SIZE : 0);
+        }
+
+        @Override
+        void undo(Editable editable) {
+            apply(editable, before);
+        }
+
+        @Override
+        void redo(Editable editable) {
+            apply(editable, after);
+        }
+
+        private void apply(Spannable text, SpanState state) {
+            if (state == null) {
+                text.removeSpan(span);
+            } else {
+                state.apply(text);
+            }
+        }
+    }
+
+    static class SpanState {
+
+        static final int SIZE = OBJECT_SIZE + REFERENCE_SIZE + 3 * INT_SIZE;
+
+        final Object span;
+
+        final int start;
+
+        final int end;
+
+        final int flags;
+
+        SpanState(Object span, int start, int end, int flags) {
+            this.span = span;
+            this.start = start;
+            this.end = end;
+            this.flags = flags;
+        }
+
+        static SpanState of(Spanned text, Object span) {
+            int start = text.getSpanStart(span);
+            if (start == -1) {
+                return null;
+            }
+            return new SpanState(span, start, text.getSpanEnd(span), text.getSpanFlags(span));
+        }
+
+        static boolean contains(SpanState[] states, Object span) {
+            for (SpanState state : states) {
+                if (state.span == span) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean equalsState(SpanState state) {
+            return state != null && start == state.start && end == state.end && flags == state.flags;
+        }
+
+        void apply(Spannable text) {
+            int length = text.length();
+            text.setSpan(span, Math.min(start, length), Math.min(end, length), flags);
+        }
+    }
+
+    private static long getStringSize(String text) {
+        return OBJECT_SIZE + REFERENCE_SIZE + 2 * INT_SIZE + OBJECT_SIZE + INT_SIZE + (long) text.length() * CHAR_SIZE;
+    }
+
+    private static long getStatesSize(SpanState[] states) {
+        return OBJECT_SIZE + INT_SIZE + (long) states.length * (REFERENCE_SIZE + SpanState.SIZE);
+    }
+}
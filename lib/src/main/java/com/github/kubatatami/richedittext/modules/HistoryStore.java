@@ -0,0 +1,612 @@
+package com.github.kubatatami.richedittext.modules;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import com.github.kubatatami.richedittext.BaseRichEditText;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.Operation;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.SpanOperation;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.SpanState;
+import com.github.kubatatami.richedittext.modules.HistoryRecord.TextOperation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+class HistoryStore {
+
+    private static final int MAGIC = 0x52544548;
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int MAX_RECORDS = 1024;
+
+    private static final int HEADER_SIZE = 4 * 4;
+
+    private static final int SLOT_SIZE = (5 + MAX_RECORDS) * 4;
+
+    private static final int ARENA_START = HEADER_SIZE + 2 * SLOT_SIZE;
+
+    private final SpanCodec spanCodec;
+
+    private final Executor executor;
+
+    private final RandomAccessFile file;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    private Map<HistoryRecord, Integer> recordIds = new IdentityHashMap<>();
+
+    private final Map<Object, SpanEntry> spanEntries = new WeakHashMap<>();
+
+    private int nextRecordId;
+
+    private int nextSpanId;
+
+    private final Map<Integer, int[]> entries = new HashMap<>();
+
+    private int tail;
+
+    private int activeSlot;
+
+    private int[] liveUndoIds = new int[0];
+
+    private int[] liveRedoIds = new int[0];
+
+    private int liveLength = -1;
+
+    private int liveHash;
+
+    HistoryStore(BaseRichEditText richEditText, File file, int capacity, Executor executor) throws IOException {
+        this.spanCodec = new SpanCodec(richEditText);
+        this.executor = executor;
+        this.capacity = capacity;
+        this.file = new RandomAccessFile(file, "rw");
+        long length = ARENA_START + (long) capacity;
+        boolean valid = this.file.length() == length;
+        if (!valid) {
+            this.file.setLength(length);
+        }
+        buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        activeSlot = buffer.getInt(12);
+        if (!valid || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION
+                || buffer.getInt(8) != capacity || (activeSlot != 0 && activeSlot != 1)) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putInt(12, 0);
+            writeSlot(0, 0, -1, 0, new int[0], new int[0]);
+            activeSlot = 0;
+        }
+    }
+
+    Loaded load(CharSequence text, int hash) {
+        int slot = getSlotOffset(activeSlot);
+        int undoCount = buffer.getInt(slot + 12);
+        int redoCount = buffer.getInt(slot + 16);
+        if (buffer.getInt(slot + 4) != text.length() || buffer.getInt(slot + 8) != hash
+                || undoCount < 0 || redoCount < 0 || undoCount + redoCount > MAX_RECORDS) {
+            reset();
+            return null;
+        }
+        try {
+            Map<Integer, Placeholder> placeholders = new HashMap<>();
+            List<StoredRecord> storedUndo = readRecords(slot + 20, undoCount, placeholders);
+            List<StoredRecord> storedRedo = readRecords(slot + 20 + undoCount * 4, redoCount, placeholders);
+            Binding binding = new Binding();
+            Loaded loaded = new Loaded();
+            SpannableStringBuilder copy = new SpannableStringBuilder(text);
+            for (StoredRecord stored : storedUndo) {
+                List<Operation> operations = HistoryCompressor.decompress(stored.compressed);
+                Operation[] resolved = new Operation[operations.size()];
+                for (int i = operations.size() - 1; i >= 0; i--) {
+                    resolved[i] = resolve(operations.get(i), true, copy, binding);
+                    resolved[i].undo(copy);
+                }
+                loaded.undo.add(createRecord(stored, resolved));
+            }
+            copy = new SpannableStringBuilder(text);
+            for (StoredRecord stored : storedRedo) {
+                List<Operation> operations = HistoryCompressor.decompress(stored.compressed);
+                Operation[] resolved = new Operation[operations.size()];
+                for (int i = 0; i < operations.size(); i++) {
+                    resolved[i] = resolve(operations.get(i), false, copy, binding);
+                    resolved[i].redo(copy);
+                }
+                loaded.redo.add(createRecord(stored, resolved));
+            }
+            tail = buffer.getInt(slot);
+            liveUndoIds = getRecordIds(loaded.undo);
+            liveRedoIds = getRecordIds(loaded.redo);
+            liveLength = text.length();
+            liveHash = hash;
+            for (Map.Entry<Placeholder, Object> entry : binding.spans.entrySet()) {
+                Placeholder placeholder = entry.getKey();
+                spanEntries.put(entry.getValue(), new SpanEntry(placeholder.id, new String[]{placeholder.controller, placeholder.tag}));
+                nextSpanId = Math.max(nextSpanId, placeholder.id + 1);
+            }
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            recordIds.clear();
+            reset();
+            return null;
+        }
+    }
+
+    void sync(List<HistoryRecord> undoList, List<HistoryRecord> redoList, final int length, final int hash) {
+        final List<PendingWrite> writes = new ArrayList<>();
+        Map<HistoryRecord, Integer> ids = new IdentityHashMap<>();
+        final int[] undoIds = getIds(undoList, MAX_RECORDS, writes, ids);
+        final int[] redoIds = getIds(redoList, MAX_RECORDS - undoIds.length, writes, ids);
+        recordIds = ids;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(writes, undoIds, redoIds, length, hash);
+            }
+        });
+    }
+
+    void invalidate(HistoryRecord record) {
+        recordIds.remove(record);
+    }
+
+    void close() {
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    buffer.force();
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, null);
+        executor.execute(task);
+        try {
+            task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int[] getIds(List<HistoryRecord> records, int limit, List<PendingWrite> writes, Map<HistoryRecord, Integer> ids) {
+        int count = Math.min(records.size(), limit);
+        int[] result = new int[count];
+        int i = 0;
+        for (HistoryRecord record : records) {
+            if (i == count) {
+                break;
+            }
+            Integer id = recordIds.get(record);
+            if (id == null) {
+                PendingWrite write = prepareWrite(record);
+                if (write != null) {
+                    id = write.id;
+                    writes.add(write);
+                }
+            }
+            if (id != null) {
+                ids.put(record, id);
+            }
+            result[i++] = id != null ? id : -1;
+        }
+        return result;
+    }
+
+    private PendingWrite prepareWrite(HistoryRecord record) {
+        HistoryCompressor.Compressed compressed = record.getCompressed();
+        List<Operation> operations = compressed == null ? record.getOperations() : null;
+        List<Object> spans = compressed == null ? HistoryCompressor.collectSpans(operations) : Arrays.asList(compressed.spans);
+        int[] ids = new int[spans.size()];
+        String[][] descriptors = new String[spans.size()][];
+        for (int i = 0; i < spans.size(); i++) {
+            Object span = spans.get(i);
+            SpanEntry entry = spanEntries.get(span);
+            if (entry == null) {
+                String[] descriptor = spanCodec.encode(span);
+                if (descriptor == null) {
+                    return null;
+                }
+                entry = new SpanEntry(nextSpanId++, descriptor);
+                spanEntries.put(span, entry);
+            }
+            ids[i] = entry.id;
+            descriptors[i] = entry.descriptor;
+        }
+        return new PendingWrite(nextRecordId++, record, operations, compressed, spans, ids, descriptors);
+    }
+
+    private void write(List<PendingWrite> writes, int[] undoIds, int[] redoIds, int length, int hash) {
+        for (PendingWrite write : writes) {
+            byte[] payload = write.serialize();
+            int offset = allocate(4 + payload.length);
+            if (offset != -1) {
+                ByteBuffer target = buffer.duplicate();
+                target.position(ARENA_START + offset);
+                target.putInt(payload.length);
+                target.put(payload);
+                entries.put(write.id, new int[]{offset, 4 + payload.length});
+            }
+        }
+        publish(undoIds, redoIds, length, hash);
+        Map<Integer, int[]> usedEntries = new HashMap<>();
+        for (int id : liveUndoIds) {
+            usedEntries.put(id, entries.get(id));
+        }
+        for (int id : liveRedoIds) {
+            usedEntries.put(id, entries.get(id));
+        }
+        entries.clear();
+        entries.putAll(usedEntries);
+    }
+
+    private void reset() {
+        entries.clear();
+        publish(new int[0], new int[0], -1, 0);
+    }
+
+    private void publish(int[] undoIds, int[] redoIds, int length, int hash) {
+        liveUndoIds = getStoredIds(undoIds);
+        liveRedoIds = getStoredIds(redoIds);
+        liveLength = length;
+        liveHash = hash;
+        int slot = 1 - activeSlot;
+        writeSlot(slot, tail, length, hash, getOffsets(liveUndoIds), getOffsets(liveRedoIds));
+        buffer.putInt(12, slot);
+        activeSlot = slot;
+    }
+
+    private int allocate(int length) {
+        if (length > capacity) {
+            return -1;
+        }
+        if (tail + length > capacity) {
+            tail = 0;
+        }
+        int offset = tail;
+        List<Integer> overwritten = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> entry : entries.entrySet()) {
+            int[] range = entry.getValue();
+            if (range[0] < offset + length && range[0] + range[1] > offset) {
+                overwritten.add(entry.getKey());
+            }
+        }
+        boolean live = false;
+        for (Integer id : overwritten) {
+            entries.remove(id);
+            live |= contains(liveUndoIds, id) || contains(liveRedoIds, id);
+        }
+        tail = offset + length;
+        if (live) {
+            publish(liveUndoIds, liveRedoIds, liveLength, liveHash);
+        }
+        return offset;
+    }
+
+    private int[] getStoredIds(int[] ids) {
+        int count = 0;
+        while (count < ids.length && entries.containsKey(ids[count])) {
+            count++;
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    private int[] getOffsets(int[] ids) {
+        int[] offsets = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            offsets[i] = entries.get(ids[i])[0];
+        }
+        return offsets;
+    }
+
+    private int[] getRecordIds(List<HistoryRecord> records) {
+        int[] ids = new int[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = recordIds.get(records.get(i));
+        }
+        return ids;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int value : ids) {
+            if (value == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeSlot(int slot, int tail, int length, int hash, int[] undoOffsets, int[] redoOffsets) {
+        int offset = getSlotOffset(slot);
+        buffer.putInt(offset, tail);
+        buffer.putInt(offset + 4, length);
+        buffer.putInt(offset + 8, hash);
+        buffer.putInt(offset + 12, undoOffsets.length);
+        buffer.putInt(offset + 16, redoOffsets.length);
+        offset += 20;
+        for (int undoOffset : undoOffsets) {
+            buffer.putInt(offset, undoOffset);
+            offset += 4;
+        }
+        for (int redoOffset : redoOffsets) {
+            buffer.putInt(offset, redoOffset);
+            offset += 4;
+        }
+    }
+
+    private List<StoredRecord> readRecords(int indexOffset, int count, Map<Integer, Placeholder> placeholders) throws IOException {
+        List<StoredRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(readRecord(buffer.getInt(indexOffset + i * 4), placeholders));
+        }
+        return records;
+    }
+
+    private StoredRecord readRecord(int offset, Map<Integer, Placeholder> placeholders) throws IOException {
+        if (offset < 0 || offset + 4 > capacity) {
+            throw new IOException("Invalid history entry offset: " + offset);
+        }
+        int length = buffer.getInt(ARENA_START + offset);
+        if (length < 0 || offset + 4 + length > capacity) {
+            throw new IOException("Invalid history entry length: " + length);
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(ARENA_START + offset + 4);
+        source.get(payload);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        StoredRecord record = new StoredRecord(offset, 4 + length);
+        record.selectionStartBefore = in.readInt();
+        record.selectionEndBefore = in.readInt();
+        record.selectionStartAfter = in.readInt();
+        record.selectionEndAfter = in.readInt();
+        Object[] spans = new Object[in.readInt()];
+        for (int i = 0; i < spans.length; i++) {
+            int id = in.readInt();
+            String controller = in.readUTF();
+            String tag = in.readUTF();
+            Placeholder placeholder = placeholders.get(id);
+            if (placeholder == null) {
+                placeholder = new Placeholder(id, controller, tag);
+                placeholders.put(id, placeholder);
+            }
+            spans[i] = placeholder;
+        }
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        record.compressed = new HistoryCompressor.Compressed(data, spans);
+        return record;
+    }
+
+    private HistoryRecord createRecord(StoredRecord stored, Operation[] operations) {
+        HistoryRecord record = new HistoryRecord();
+        for (Operation operation : operations) {
+            record.add(operation, true);
+        }
+        record.selectionStartBefore = stored.selectionStartBefore;
+        record.selectionEndBefore = stored.selectionEndBefore;
+        record.selectionStartAfter = stored.selectionStartAfter;
+        record.selectionEndAfter = stored.selectionEndAfter;
+        int id = nextRecordId++;
+        recordIds.put(record, id);
+        entries.put(id, new int[]{stored.offset, stored.length});
+        return record;
+    }
+
+    private Operation resolve(Operation operation, boolean undo, Spanned text, Binding binding) throws IOException {
+        if (operation instanceof TextOperation) {
+            TextOperation textOperation = (TextOperation) operation;
+            for (SpanState state : undo ? textOperation.spansAfter : textOperation.spansBefore) {
+                bindExisting(state, text, binding);
+            }
+            return new TextOperation(textOperation.start, textOperation.removed, textOperation.added,
+                    resolveStates(textOperation.spansBefore, binding), resolveStates(textOperation.spansAfter, binding));
+        } else {
+            SpanOperation spanOperation = (SpanOperation) operation;
+            SpanState current = undo ? spanOperation.after : spanOperation.before;
+            if (current != null) {
+                bindExisting(current, text, binding);
+            }
+            Object span = resolveSpan((Placeholder) spanOperation.span, binding);
+            return new SpanOperation(span, resolveState(spanOperation.before, span), resolveState(spanOperation.after, span));
+        }
+    }
+
+    private void bindExisting(SpanState state, Spanned text, Binding binding) {
+        Placeholder placeholder = (Placeholder) state.span;
+        if (binding.spans.containsKey(placeholder)) {
+            return;
+        }
+        for (Object span : text.getSpans(state.start, state.end, Object.class)) {
+            if (text.getSpanStart(span) == state.start && text.getSpanEnd(span) == state.end
+                    && !binding.claimed.containsKey(span) && placeholder.matches(spanCodec.encode(span))) {
+                binding.bind(placeholder, span);
+                return;
+            }
+        }
+    }
+
+    private SpanState[] resolveStates(SpanState[] states, Binding binding) throws IOException {
+        SpanState[] result = new SpanState[states.length];
+        for (int i = 0; i < states.length; i++) {
+            result[i] = resolveState(states[i], resolveSpan((Placeholder) states[i].span, binding));
+        }
+        return result;
+    }
+
+    private SpanState resolveState(SpanState state, Object span) {
+        return state != null ? new SpanState(span, state.start, state.end, state.flags) : null;
+    }
+
+    private Object resolveSpan(Placeholder placeholder, Binding binding) throws IOException {
+        Object span = binding.spans.get(placeholder);
+        if (span == null) {
+            span = spanCodec.decode(placeholder.controller, placeholder.tag);
+            if (span == null) {
+                throw new IOException("Unable to restore span: " + placeholder.tag);
+            }
+            binding.bind(placeholder, span);
+        }
+        return span;
+    }
+
+    private static int getSlotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    static class Loaded {
+
+        final List<HistoryRecord> undo = new ArrayList<>();
+
+        final List<HistoryRecord> redo = new ArrayList<>();
+    }
+
+    private static class PendingWrite {
+
+        final int id;
+
+        final int selectionStartBefore;
+
+        final int selectionEndBefore;
+
+        final int selectionStartAfter;
+
+        final int selectionEndAfter;
+
+        final List<Operation> operations;
+
+        final HistoryCompressor.Compressed compressed;
+
+        final List<Object> spans;
+
+        final int[] spanIds;
+
+        final String[][] descriptors;
+
+        PendingWrite(int id, HistoryRecord record, List<Operation> operations, HistoryCompressor.Compressed compressed,
+                     List<Object> spans, int[] spanIds, String[][] descriptors) {
+            this.id = id;
+            this.selectionStartBefore = record.selectionStartBefore;
+            this.selectionEndBefore = record.selectionEndBefore;
+            this.selectionStartAfter = record.selectionStartAfter;
+            this.selectionEndAfter = record.selectionEndAfter;
+            this.operations = operations;
+            this.compressed = compressed;
+            this.spans = spans;
+            this.spanIds = spanIds;
+            this.descriptors = descriptors;
+        }
+
+        byte[] serialize() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(selectionStartBefore);
+                out.writeInt(selectionEndBefore);
+                out.writeInt(selectionStartAfter);
+                out.writeInt(selectionEndAfter);
+                out.writeInt(spanIds.length);
+                for (int i = 0; i < spanIds.length; i++) {
+                    out.writeInt(spanIds[i]);
+                    out.writeUTF(descriptors[i][0]);
+                    out.writeUTF(descriptors[i][1]);
+                }
+                HistoryCompressor.Compressed compressed = this.compressed != null
+                        ? this.compressed : HistoryCompressor.compress(operations, spans);
+                out.writeInt(compressed.data.length);
+                out.write(compressed.data);
+                out.close();
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class SpanEntry {
+
+        final int id;
+
+        final String[] descriptor;
+
+        SpanEntry(int id, String[] descriptor) {
+            this.id = id;
+            this.descriptor = descriptor;
+        }
+    }
+
+    private static class StoredRecord {
+
+        final int offset;
+
+        final int length;
+
+        int selectionStartBefore;
+
+        int selectionEndBefore;
+
+        int selectionStartAfter;
+
+        int selectionEndAfter;
+
+        HistoryCompressor.Compressed compressed;
+
+        StoredRecord(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Placeholder {
+
+        final int id;
+
+        final String controller;
+
+        final String tag;
+
+        Placeholder(int id, String controller, String tag) {
+            this.id = id;
+            this.controller = controller;
+            this.tag = tag;
+        }
+
+        boolean matches(String[] descriptor) {
+            return descriptor != null && controller.equals(descriptor[0]) && tag.equals(descriptor[1]);
+        }
+    }
+
+    private static class Binding {
+
+        final Map<Placeholder, Object> spans = new HashMap<>();
+
+        final Map<Object, Boolean> claimed = new IdentityHashMap<>();
+
+        void bind(Placeholder placeholder, Object span) {
+            spans.put(placeholder, span);
+            claimed.put(span, true);
+        }
+    }
+}
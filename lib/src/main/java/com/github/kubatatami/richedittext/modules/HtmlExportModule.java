@@ -6,13 +6,15 @@ import android.text.style.ParagraphStyle;
 import android.widget.EditText;
 
 import com.github.kubatatami.richedittext.BaseRichEditText;
-import com.github.kubatatami.richedittext.other.SpanUtil;
 import com.github.kubatatami.richedittext.styles.base.SpanController;
 import com.github.kubatatami.richedittext.styles.base.StartStyleProperty;
 import com.github.kubatatami.richedittext.styles.list.ListController;
 import com.github.kubatatami.richedittext.styles.list.ListItemSpan;
 import com.github.kubatatami.richedittext.styles.list.ListSpan;
+import com.github.kubatatami.richedittext.utils.ComposingSpanFactory;
+import com.github.kubatatami.richedittext.utils.SpanTree;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
@@ -30,9 +32,12 @@ public class HtmlExportModule {
 
     private Collection<SpanController<?, ?>> spanControllers;
 
+    private BaseRichEditText richEditText;
+
     public String getHtml(BaseRichEditText editText, Collection<SpanController<?, ?>> spanControllers,
                           List<StartStyleProperty> properties, boolean standalone) {
         this.spanControllers = spanControllers;
+        this.richEditText = editText;
 
         StringBuilder out = new StringBuilder();
         if (standalone) {
@@ -82,14 +87,24 @@ public class HtmlExportModule {
 
     private void within(Class<?> clazz, StringBuilder out, EditText editText, int start, int end, WithinCallback withinCallback) {
         Editable text = editText.getText();
+        SpanTree spanTree = ComposingSpanFactory.getSpanTree(text);
+        SpanCollector collector = new SpanCollector();
 
         int next;
         for (int i = start; i < end; i = next) {
-            next = text.nextSpanTransition(i, end, clazz);
-            Object[] spans = text.getSpans(i, next, clazz);
+            Object[] spans;
+            if (spanTree != null) {
+                next = spanTree.nextSpanTransition(i, end, clazz);
+                collector.spans.clear();
+                spanTree.forEachSpan(i, next, clazz, collector);
+                spans = collector.spans.toArray();
+            } else {
+                next = text.nextSpanTransition(i, end, clazz);
+                spans = text.getSpans(i, next, clazz);
+            }
             spanSort(spans);
             for (Object span : spans) {
-                SpanController<?, ?> controller = SpanUtil.acceptController(spanControllers, span);
+                SpanController<?, ?> controller = richEditText.getController(span);
                 if (controller != null && text.getSpanStart(span) != text.getSpanEnd(span)) {
                     out.append(controller.beginTag(span, text.getSpanStart(span) != i, spans));
                     insideCssBlockElement = controller.isCssBlockElement();
@@ -108,7 +123,7 @@ public class HtmlExportModule {
             insideListElement = false;
             insideInternalListElement = false;
             for (int j = spans.length - 1; j >= 0; j--) {
-                SpanController<?, ?> controller = SpanUtil.acceptController(spanControllers, spans[j]);
+                SpanController<?, ?> controller = richEditText.getController(spans[j]);
                 if (controller != null && text.getSpanStart(spans[j]) != text.getSpanEnd(spans[j])) {
                     out.append(controller.endTag(spans[j], text.getSpanEnd(spans[j]) == next, spans));
                 }
@@ -191,6 +206,16 @@ public class HtmlExportModule {
         });
     }
 
+    private static class SpanCollector implements SpanTree.SpanVisitor {
+
+        final List<Object> spans = new ArrayList<>();
+
+        @Override
+        public void visit(Object span) {
+            spans.add(span);
+        }
+    }
+
     interface WithinCallback {
 
         void nextWithin(Class<?> clazz, StringBuilder out, EditText editText, int start, int end);
@@ -0,0 +1,485 @@
+package com.github.kubatatami.richedittext.modules;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import com.github.kubatatami.richedittext.BaseRichEditText;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+public class JournalModule {
+
+    private static final int SNAPSHOT_MAGIC = 0x524a534e;
+
+    private static final int JOURNAL_MAGIC = 0x524a4e4c;
+
+    private static final int TEXT = 0;
+
+    private static final int SPAN_SET = 1;
+
+    private static final int SPAN_REMOVE = 2;
+
+    private static final long DEFAULT_FLUSH_DELAY_MS = 1000;
+
+    private static final int DEFAULT_COMPACT_ENTRIES = 5000;
+
+    private static final Executor journalExecutor = Executors.newSingleThreadExecutor();
+
+    private final BaseRichEditText richEditText;
+
+    private final SpanCodec spanCodec;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Map<Object, Integer> spanIds = new WeakHashMap<>();
+
+    private final Set<Integer> describedSpans = new HashSet<>();
+
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            if (trackedText != null) {
+                writePending();
+                if (entryCount >= compactEntries) {
+                    scheduleCompact();
+                }
+            }
+        }
+    };
+
+    private final Runnable compactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (compactScheduled) {
+                compactScheduled = false;
+                compact();
+            }
+        }
+    };
+
+    private File snapshotFile;
+
+    private File journalFile;
+
+    private Editable trackedText;
+
+    private boolean flushScheduled;
+
+    private boolean compactScheduled;
+
+    private int generation;
+
+    private int nextSpanId;
+
+    private int entryCount;
+
+    private long flushDelayMs = DEFAULT_FLUSH_DELAY_MS;
+
+    private int compactEntries = DEFAULT_COMPACT_ENTRIES;
+
+    public JournalModule(BaseRichEditText richEditText) {
+        this.richEditText = richEditText;
+        this.spanCodec = new SpanCodec(richEditText);
+    }
+
+    public Spanned recover(File file) {
+        File snapshot = getSnapshotFile(file);
+        if (!snapshot.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+            try {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    return null;
+                }
+                int snapshotGeneration = in.readInt();
+                SpannableStringBuilder text = new SpannableStringBuilder(HistoryCompressor.readString(in));
+                Map<Integer, Object> spans = new HashMap<>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    int id = in.readInt();
+                    Object span = spanCodec.decode(in.readUTF(), in.readUTF());
+                    int start = in.readInt();
+                    int end = in.readInt();
+                    int flags = in.readInt();
+                    if (span != null && isValidRange(text, start, end)) {
+                        spans.put(id, span);
+                        text.setSpan(span, start, end, flags);
+                    }
+                }
+                generation = snapshotGeneration;
+                replay(getJournalFile(file), snapshotGeneration, text, spans);
+                return text;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void replay(File journal, int snapshotGeneration, SpannableStringBuilder text, Map<Integer, Object> spans) throws IOException {
+        if (!journal.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try {
+            if (in.readInt() != JOURNAL_MAGIC || in.readInt() != snapshotGeneration) {
+                return;
+            }
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type == TEXT) {
+                    int start = in.readInt();
+                    int end = in.readInt();
+                    String added = HistoryCompressor.readString(in);
+                    if (!isValidRange(text, start, end)) {
+                        return;
+                    }
+                    text.replace(start, end, added);
+                } else if (type == SPAN_SET) {
+                    int id = in.readInt();
+                    Object span = spans.get(id);
+                    if (in.readBoolean()) {
+                        Object described = spanCodec.decode(in.readUTF(), in.readUTF());
+                        if (span == null && described != null) {
+                            span = described;
+                            spans.put(id, span);
+                        }
+                    }
+                    int start = in.readInt();
+                    int end = in.readInt();
+                    int flags = in.readInt();
+                    if (span != null && isValidRange(text, start, end)) {
+                        text.setSpan(span, start, end, flags);
+                    }
+                } else if (type == SPAN_REMOVE) {
+                    Object span = spans.get(in.readInt());
+                    if (span != null) {
+                        text.removeSpan(span);
+                    }
+                } else {
+                    return;
+                }
+            }
+        } catch (EOFException ignored) {
+        } finally {
+            in.close();
+        }
+    }
+
+    public void start(File file) {
+        snapshotFile = getSnapshotFile(file);
+        journalFile = getJournalFile(file);
+        trackedText = richEditText.getEditableText();
+        compactScheduled = false;
+        compact();
+    }
+
+    public void stop() {
+        if (trackedText == null) {
+            return;
+        }
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        compactScheduled = false;
+        trackedText = null;
+        pending.reset();
+        final File snapshot = snapshotFile;
+        final File journal = journalFile;
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.delete();
+                journal.delete();
+            }
+        });
+    }
+
+    public boolean isStarted() {
+        return trackedText != null;
+    }
+
+    public boolean isTracking(Spanned text, Object span) {
+        return trackedText != null && text == trackedText && !compactScheduled && HistoryModule.isHistorySpan(span);
+    }
+
+    public void onSpanChanged(Spanned text, Object span) {
+        int start = text.getSpanStart(span);
+        try {
+            if (start == -1) {
+                Integer id = spanIds.get(span);
+                if (id != null) {
+                    pendingOut.writeByte(SPAN_REMOVE);
+                    pendingOut.writeInt(id);
+                    onEntryAdded();
+                }
+                return;
+            }
+            boolean described = false;
+            Integer id = spanIds.get(span);
+            String[] descriptor = null;
+            if (id == null || !describedSpans.contains(id)) {
+                descriptor = spanCodec.encode(span);
+                if (descriptor == null) {
+                    return;
+                }
+                if (id == null) {
+                    id = nextSpanId++;
+                    spanIds.put(span, id);
+                }
+                describedSpans.add(id);
+                described = true;
+            }
+            pendingOut.writeByte(SPAN_SET);
+            pendingOut.writeInt(id);
+            pendingOut.writeBoolean(described);
+            if (described) {
+                pendingOut.writeUTF(descriptor[0]);
+                pendingOut.writeUTF(descriptor[1]);
+            }
+            pendingOut.writeInt(start);
+            pendingOut.writeInt(text.getSpanEnd(span));
+            pendingOut.writeInt(text.getSpanFlags(span));
+            onEntryAdded();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (trackedText == null) {
+            return;
+        }
+        if (s != trackedText) {
+            trackedText = richEditText.getEditableText();
+            scheduleCompact();
+            return;
+        }
+        if (compactScheduled) {
+            return;
+        }
+        try {
+            pendingOut.writeByte(TEXT);
+            pendingOut.writeInt(start);
+            pendingOut.writeInt(start + before);
+            HistoryCompressor.writeString(pendingOut, s.subSequence(start, start + count).toString());
+            onEntryAdded();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void onSpansInserted(Spanned text, int start, int end) {
+        if (text != trackedText || compactScheduled) {
+            return;
+        }
+        for (Object span : text.getSpans(start, end, Object.class)) {
+            if (HistoryModule.isHistorySpan(span) && text.getSpanStart(span) >= start && text.getSpanEnd(span) <= end) {
+                onSpanChanged(text, span);
+            }
+        }
+    }
+
+    private void onEntryAdded() {
+        entryCount++;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, flushDelayMs);
+        }
+    }
+
+    public void flush() {
+        if (trackedText == null) {
+            return;
+        }
+        if (compactScheduled || entryCount >= compactEntries) {
+            compactScheduled = false;
+            compact();
+        } else {
+            writePending();
+        }
+    }
+
+    private void scheduleCompact() {
+        if (!compactScheduled) {
+            compactScheduled = true;
+            richEditText.scheduleMaintenance(compactRunnable);
+        }
+    }
+
+    private void writePending() {
+        if (pending.size() > 0) {
+            final byte[] data = pending.toByteArray();
+            final File journal = journalFile;
+            pending.reset();
+            journalExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FileOutputStream out = new FileOutputStream(journal, true);
+                        try {
+                            out.write(data);
+                        } finally {
+                            out.close();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    private void compact() {
+        final String text = trackedText.toString();
+        final List<SnapshotSpan> spans = new ArrayList<>();
+        describedSpans.clear();
+        for (Object span : trackedText.getSpans(0, trackedText.length(), Object.class)) {
+            if (HistoryModule.isHistorySpan(span)) {
+                String[] descriptor = spanCodec.encode(span);
+                if (descriptor != null) {
+                    Integer id = spanIds.get(span);
+                    if (id == null) {
+                        id = nextSpanId++;
+                        spanIds.put(span, id);
+                    }
+                    describedSpans.add(id);
+                    spans.add(new SnapshotSpan(id, descriptor, trackedText.getSpanStart(span),
+                            trackedText.getSpanEnd(span), trackedText.getSpanFlags(span)));
+                }
+            }
+        }
+        final int snapshotGeneration = ++generation;
+        final File snapshot = snapshotFile;
+        final File journal = journalFile;
+        pending.reset();
+        entryCount = 0;
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(snapshot, snapshotGeneration, text, spans);
+                    writeJournalHeader(journal, snapshotGeneration);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public long getFlushDelay() {
+        return flushDelayMs;
+    }
+
+    public void setFlushDelay(long flushDelayMs) {
+        this.flushDelayMs = flushDelayMs;
+    }
+
+    public int getCompactEntries() {
+        return compactEntries;
+    }
+
+    public void setCompactEntries(int compactEntries) {
+        this.compactEntries = compactEntries;
+    }
+
+    private static void writeSnapshot(File file, int generation, String text, List<SnapshotSpan> spans) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(generation);
+            HistoryCompressor.writeString(out, text);
+            out.writeInt(spans.size());
+            for (SnapshotSpan span : spans) {
+                out.writeInt(span.id);
+                out.writeUTF(span.descriptor[0]);
+                out.writeUTF(span.descriptor[1]);
+                out.writeInt(span.start);
+                out.writeInt(span.end);
+                out.writeInt(span.flags);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    private static void writeJournalHeader(File file, int generation) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeInt(generation);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    private static boolean isValidRange(Spanned text, int start, int end) {
+        return start >= 0 && start <= end && end <= text.length();
+    }
+
+    private static File getSnapshotFile(File file) {
+        return new File(file.getPath() + ".snapshot");
+    }
+
+    private static File getJournalFile(File file) {
+        return new File(file.getPath() + ".journal");
+    }
+
+    private static class SnapshotSpan {
+
+        final int id;
+
+        final String[] descriptor;
+
+        final int start;
+
+        final int end;
+
+        final int flags;
+
+        SnapshotSpan(int id, String[] descriptor, int start, int end, int flags) {
+            this.id = id;
+            this.descriptor = descriptor;
+            this.start = start;
+            this.end = end;
+            this.flags = flags;
+        }
+    }
+}
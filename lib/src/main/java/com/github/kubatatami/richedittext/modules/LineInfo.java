@@ -19,6 +19,12 @@ public class LineInfo {
         return getLineInfo(editable, start, end);
     }
 
+    public static LineInfo getDirtyLineInfo(Editable editable, StyleSelectionInfo styleSelectionInfo) {
+        int start = Math.max(0, Math.min(styleSelectionInfo.dirtyStart, editable.length()));
+        int end = Math.max(start, Math.min(styleSelectionInfo.dirtyEnd, editable.length()));
+        return getLineInfo(editable, start, end);
+    }
+
     public static LineInfo getLineInfo(Editable editable, int start, int end) {
         while (editable.length() > start - 1 && start - 1 >= 0 && editable.charAt(start - 1) != '\n') {
             start--;
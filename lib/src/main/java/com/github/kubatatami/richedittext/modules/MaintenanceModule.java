@@ -0,0 +1,131 @@
+package com.github.kubatatami.richedittext.modules;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.text.Editable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+public class MaintenanceModule implements MessageQueue.IdleHandler {
+
+    private static final long DEFAULT_SLICE_MS = 4;
+
+    private final HistoryModule historyModule;
+
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable wakeUpRunnable = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private long sliceMs = DEFAULT_SLICE_MS;
+
+    private boolean registered;
+
+    public MaintenanceModule(HistoryModule historyModule) {
+        this.historyModule = historyModule;
+    }
+
+    public void schedule(Runnable task) {
+        tasks.addLast(task);
+        if (!registered) {
+            registered = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    public void schedule(RangeTask task, Editable editable, int start, int end) {
+        if (task.editable == editable) {
+            task.start = Math.min(task.start, start);
+            task.end = Math.max(task.end, end);
+            return;
+        }
+        boolean scheduled = task.editable != null;
+        task.editable = editable;
+        task.start = start;
+        task.end = end;
+        if (!scheduled) {
+            schedule(task);
+        }
+    }
+
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        for (Runnable task : tasks) {
+            if (task instanceof RangeTask && ((RangeTask) task).editable == s) {
+                RangeTask rangeTask = (RangeTask) task;
+                rangeTask.start = shiftPosition(rangeTask.start, start, before, count);
+                rangeTask.end = shiftPosition(rangeTask.end, start, before, count);
+            }
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        long deadline = SystemClock.uptimeMillis() + sliceMs;
+        while (!tasks.isEmpty()) {
+            runNext();
+            if (SystemClock.uptimeMillis() >= deadline) {
+                break;
+            }
+        }
+        registered = !tasks.isEmpty();
+        if (registered) {
+            handler.post(wakeUpRunnable);
+        }
+        return registered;
+    }
+
+    public void flush() {
+        while (!tasks.isEmpty()) {
+            runNext();
+        }
+    }
+
+    public void setSliceMs(long sliceMs) {
+        this.sliceMs = sliceMs;
+    }
+
+    private static int shiftPosition(int position, int start, int before, int count) {
+        if (position == Integer.MAX_VALUE || position <= start) {
+            return position;
+        }
+        return position >= start + before ? position + count - before : start + count;
+    }
+
+    private void runNext() {
+        Runnable task = tasks.pollFirst();
+        historyModule.beginNormalization();
+        try {
+            task.run();
+        } finally {
+            historyModule.endNormalization();
+        }
+    }
+
+    public abstract static class RangeTask implements Runnable {
+
+        private Editable editable;
+
+        private int start;
+
+        private int end;
+
+        @Override
+        public void run() {
+            Editable editable = this.editable;
+            this.editable = null;
+            int length = editable.length();
+            run(editable, Math.min(start, length), Math.min(end, length));
+        }
+
+        protected abstract void run(Editable editable, int start, int end);
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.github.kubatatami.richedittext.modules;
+
+import com.github.kubatatami.richedittext.BaseRichEditText;
+import com.github.kubatatami.richedittext.styles.base.SpanController;
+import com.github.kubatatami.richedittext.utils.HtmlToSpannedConverter;
+
+import org.ccil.cowan.tagsoup.HTMLSchema;
+import org.ccil.cowan.tagsoup.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+class SpanCodec {
+
+    private static final String INSEPARABLE = "";
+
+    private static final HTMLSchema schema = new HTMLSchema();
+
+    private final BaseRichEditText richEditText;
+
+    SpanCodec(BaseRichEditText richEditText) {
+        this.richEditText = richEditText;
+    }
+
+    String[] encode(Object span) {
+        SpanController<?, ?> controller = richEditText.getController(span);
+        if (controller != null) {
+            String tag = controller.beginTag(span, false, new Object[]{span});
+            return tag.isEmpty() ? null : new String[]{controller.getClass().getName(), tag};
+        } else if (span instanceof InseparableModule.InseparableSpan) {
+            return new String[]{INSEPARABLE, INSEPARABLE};
+        }
+        return null;
+    }
+
+    Object decode(String controllerName, String tag) throws IOException {
+        if (controllerName.equals(INSEPARABLE)) {
+            return new InseparableModule.InseparableSpan();
+        }
+        for (SpanController<?, ?> controller : richEditText.getSpanControllers()) {
+            if (controller.getClass().getName().equals(controllerName)) {
+                TagReader reader = new TagReader();
+                Parser parser = new Parser();
+                try {
+                    parser.setProperty(Parser.schemaProperty, schema);
+                    parser.setContentHandler(reader);
+                    parser.parse(new InputSource(new StringReader(tag)));
+                } catch (SAXException e) {
+                    throw new IOException(e.getMessage());
+                }
+                if (reader.tag == null) {
+                    return null;
+                }
+                Object span = controller.createSpanFromTag(reader.tag,
+                        HtmlToSpannedConverter.getStyleStringMap(reader.attributes.getValue("style")), reader.attributes);
+                return span != null && controller.acceptSpan(span) ? span : null;
+            }
+        }
+        return null;
+    }
+
+    private static class TagReader extends DefaultHandler {
+
+        String tag;
+
+        Attributes attributes;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (tag == null && !localName.equals("html") && !localName.equals("body")) {
+                tag = localName;
+                this.attributes = new AttributesImpl(attributes);
+            }
+        }
+    }
+}
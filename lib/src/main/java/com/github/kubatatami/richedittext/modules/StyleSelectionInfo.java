@@ -1,5 +1,7 @@
 package com.github.kubatatami.richedittext.modules;
 
+import android.text.Spanned;
+
 import com.github.kubatatami.richedittext.BaseRichEditText;
 
 public class StyleSelectionInfo {
@@ -14,6 +16,12 @@ public class StyleSelectionInfo {
 
     public boolean selection;
 
+    public int dirtyStart;
+
+    public int dirtyEnd = Integer.MAX_VALUE;
+
+    public Object[] spans;
+
 
     private StyleSelectionInfo() {
     }
@@ -45,12 +53,12 @@ public class StyleSelectionInfo {
         } else if (selectionStart == selectionEnd) {
             boolean end = true;
             while (selectionEnd < richEditText.getText().length()
-                    && !Character.isWhitespace(richEditText.getText().subSequence(selectionEnd, selectionEnd + 1).charAt(0))) {
+                    && !Character.isWhitespace(richEditText.getText().charAt(selectionEnd))) {
                 selectionEnd++;
                 end = false;
             }
             if (!end) {
-                while (selectionStart > 0 && !Character.isWhitespace(richEditText.getText().subSequence(selectionStart - 1, selectionStart).charAt(0))) {
+                while (selectionStart > 0 && !Character.isWhitespace(richEditText.getText().charAt(selectionStart - 1))) {
                     selectionStart--;
                 }
             }
@@ -65,6 +73,12 @@ public class StyleSelectionInfo {
         return result;
     }
 
+    public void snapshotSpans(Spanned text) {
+        int start = Math.max(0, Math.min(selectionStart, realSelectionStart) - 1);
+        int end = Math.min(text.length(), Math.max(selectionEnd, realSelectionEnd) + 1);
+        spans = text.getSpans(start, end, Object.class);
+    }
+
     private void normalize() {
         selectionStart = Math.min(selectionStart, selectionEnd);
         realSelectionStart = Math.min(realSelectionStart, realSelectionEnd);
@@ -0,0 +1,43 @@
+package com.github.kubatatami.richedittext.modules;
+
+class TextChecksum {
+
+    private static final int BOUNDARY = 0x10000;
+
+    private int value;
+
+    void reset(CharSequence text) {
+        value = getSum(text, 0, text.length());
+    }
+
+    void remove(CharSequence text, int start, int end) {
+        value -= getSum(text, start, end);
+    }
+
+    void add(CharSequence text, int start, int end) {
+        value += getSum(text, start, end);
+    }
+
+    int getValue() {
+        return value;
+    }
+
+    private static int getSum(CharSequence text, int start, int end) {
+        int sum = 0;
+        for (int i = start; i <= end; i++) {
+            int previous = i > 0 ? text.charAt(i - 1) : BOUNDARY;
+            int current = i < text.length() ? text.charAt(i) : BOUNDARY;
+            sum += mix(previous * (BOUNDARY + 1) + current);
+        }
+        return sum;
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
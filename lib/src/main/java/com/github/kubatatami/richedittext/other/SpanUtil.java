@@ -19,14 +19,14 @@ import java.util.List;
 
 public class SpanUtil {
 
-    public static boolean removeUnusedSpans(BaseRichEditText richEditText, Collection<SpanController<?, ?>> controllers, int start, int count, int after) {
+    public static boolean removeUnusedSpans(BaseRichEditText richEditText, int start, int count, int after) {
         boolean result = false;
         Editable editable = richEditText.getText();
         if (after == 0) {
             List<Pair<SpanController<?, ?>, Object>> spansToRemove = new ArrayList<>();
             Object[] spans = editable.getSpans(start, start + count, Object.class);
             for (Object span : spans) {
-                SpanController<?, ?> controller = acceptController(controllers, span);
+                SpanController<?, ?> controller = richEditText.getController(span);
                 if (controller != null) {
                     int spanStart = editable.getSpanStart(span);
                     int spanEnd = editable.getSpanEnd(span);
@@ -45,12 +45,12 @@ public class SpanUtil {
         return result;
     }
 
-    public static void inclusiveSpans(BaseRichEditText richEditText, Collection<SpanController<?, ?>> controllers) {
+    public static void inclusiveSpans(BaseRichEditText richEditText) {
         Editable editable = richEditText.getText();
         int start = richEditText.getSelectionStart();
         Object[] spans = editable.getSpans(start, start, Object.class);
         for (Object span : spans) {
-            SpanController<?, ?> controller = acceptController(controllers, span);
+            SpanController<?, ?> controller = richEditText.getController(span);
             if (controller != null) {
                 int spanStart = editable.getSpanStart(span);
                 int spanEnd = editable.getSpanEnd(span);
@@ -96,6 +96,15 @@ public class SpanUtil {
         }
     }
 
+    public static boolean isInRange(Spanned text, Object span, int start, int end) {
+        int spanStart = text.getSpanStart(span);
+        int spanEnd = text.getSpanEnd(span);
+        if (spanStart == -1 || spanStart > end || spanEnd < start) {
+            return false;
+        }
+        return spanStart == spanEnd || start == end || (spanStart != end && spanEnd != start);
+    }
+
     public static SpanController<?, ?> acceptController(Collection<SpanController<?, ?>> controllers, Object span) {
         for (SpanController<?, ?> controller : controllers) {
             if (controller.acceptSpan(span)) {
@@ -86,6 +86,11 @@ public abstract class BinaryFontSpanController<T> extends BinarySpanController<T
         }
     }
 
+    @Override
+    public int compactSpans(Editable editable, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        return mergeSpans(editable, styleSelectionInfo, start, end);
+    }
+
     private void endNow(Editable editable, T span) {
         SpanUtil.changeFlags(span, editable, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
     }
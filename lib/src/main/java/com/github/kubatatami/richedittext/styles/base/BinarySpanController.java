@@ -4,11 +4,19 @@ import android.text.Editable;
 import android.text.Spanned;
 
 import com.github.kubatatami.richedittext.BaseRichEditText;
+import com.github.kubatatami.richedittext.modules.LineInfo;
+import com.github.kubatatami.richedittext.modules.MaintenanceModule;
 import com.github.kubatatami.richedittext.modules.StyleSelectionInfo;
 import com.github.kubatatami.richedittext.other.SpanUtil;
 
+import java.util.List;
+
 public abstract class BinarySpanController<T> extends SpanController<T, Boolean> {
 
+    private final ValueCache<Boolean> valueCache = new ValueCache<>();
+
+    private final FixTask fixTask = new FixTask();
+
     private boolean value;
 
     protected BinarySpanController(Class<T> clazz, String tagName) {
@@ -22,14 +30,27 @@ public abstract class BinarySpanController<T> extends SpanController<T, Boolean>
     @Override
     public void checkAfterChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive) {
         checkCurrentValue(editText, styleSelectionInfo);
-        fixRightExclusiveSpans(editText.getEditableText(), styleSelectionInfo);
+        LineInfo dirtyLineInfo = LineInfo.getDirtyLineInfo(editText.getEditableText(), styleSelectionInfo);
+        scheduleFixRightExclusiveSpans(editText, dirtyLineInfo.start, dirtyLineInfo.end);
     }
 
-    private void fixRightExclusiveSpans(Editable editable, StyleSelectionInfo styleSelectionInfo) {
-        for (T span : filter(editable.getSpans(0, editable.length(), getClazz()))) {
-            int end = editable.getSpanEnd(span);
+    @Override
+    public void checkSelectionChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive) {
+        checkCurrentValue(editText, styleSelectionInfo);
+        int length = editText.length();
+        scheduleFixRightExclusiveSpans(editText, Math.min(styleSelectionInfo.dirtyStart, length), Math.min(styleSelectionInfo.dirtyEnd, length));
+    }
+
+    private void scheduleFixRightExclusiveSpans(BaseRichEditText editText, int start, int end) {
+        fixTask.editText = editText;
+        editText.scheduleMaintenance(fixTask, start, end);
+    }
+
+    private void fixRightExclusiveSpans(Editable editable, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        for (T span : filter(editable.getSpans(start, end, getClazz()))) {
+            int spanEnd = editable.getSpanEnd(span);
             int flags = editable.getSpanFlags(span);
-            if ((styleSelectionInfo.selection || styleSelectionInfo.realSelectionEnd != end) &&
+            if ((styleSelectionInfo.selection || styleSelectionInfo.realSelectionEnd != spanEnd) &&
                     SpanUtil.containsFlag(flags, Spanned.SPAN_INCLUSIVE_EXCLUSIVE)) {
                 SpanUtil.changeFlags(span, editable, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
             }
@@ -54,24 +75,42 @@ public abstract class BinarySpanController<T> extends SpanController<T, Boolean>
     }
 
     protected boolean isContinuous(Editable editable, StyleSelectionInfo styleSelectionInfo) {
-        for (int i = styleSelectionInfo.selectionStart; i <= styleSelectionInfo.selectionEnd; i++) {
-            if (filter(editable.getSpans(i, i, getClazz())).size() == 0) {
-                return false;
+        List<T> spans = getSpans(editable, styleSelectionInfo, Math.max(0, styleSelectionInfo.selectionStart - 1),
+                Math.min(editable.length(), styleSelectionInfo.selectionEnd + 1));
+        int position = styleSelectionInfo.selectionStart;
+        boolean covered = true;
+        while (position <= styleSelectionInfo.selectionEnd && covered) {
+            covered = false;
+            for (T span : spans) {
+                int spanEnd = editable.getSpanEnd(span);
+                if (editable.getSpanStart(span) <= position && spanEnd >= position) {
+                    position = spanEnd + 1;
+                    covered = true;
+                }
             }
         }
-        return true;
+        return position > styleSelectionInfo.selectionEnd;
     }
 
     public boolean getCurrentValue(Editable editable, StyleSelectionInfo styleSelectionInfo) {
-        if (styleSelectionInfo.selection) {
-            return isContinuous(editable, styleSelectionInfo);
+        ValueCache.Entry<Boolean> entry = valueCache.find(editable, styleSelectionInfo);
+        if (entry != null) {
+            return entry.value;
+        } else if (styleSelectionInfo.selection) {
+            return valueCache.put(editable, styleSelectionInfo, isContinuous(editable, styleSelectionInfo));
         } else {
-            return isActiveExists(editable, styleSelectionInfo.realSelectionStart, styleSelectionInfo.realSelectionEnd);
+            return valueCache.put(editable, styleSelectionInfo, isActiveExists(editable, styleSelectionInfo));
         }
     }
 
-    private boolean isActiveExists(Editable editable, int selectionStart, int selectionEnd) {
-        for (T span : filter(editable.getSpans(selectionStart, selectionEnd, getClazz()))) {
+    @Override
+    public Boolean getValue() {
+        return value;
+    }
+
+    private boolean isActiveExists(Editable editable, StyleSelectionInfo styleSelectionInfo) {
+        int selectionEnd = styleSelectionInfo.realSelectionEnd;
+        for (T span : getSpans(editable, styleSelectionInfo, styleSelectionInfo.realSelectionStart, selectionEnd)) {
             int end = editable.getSpanEnd(span);
             int flags = editable.getSpanFlags(span);
             if (end != selectionEnd
@@ -87,4 +126,15 @@ public abstract class BinarySpanController<T> extends SpanController<T, Boolean>
 
     public abstract void perform(Editable editable, StyleSelectionInfo styleSelectionInfo);
 
+    private class FixTask extends MaintenanceModule.RangeTask {
+
+        BaseRichEditText editText;
+
+        @Override
+        protected void run(Editable editable, int start, int end) {
+            if (editable == editText.getEditableText()) {
+                fixRightExclusiveSpans(editable, StyleSelectionInfo.getStyleSelectionInfo(editText), start, end);
+            }
+        }
+    }
 }
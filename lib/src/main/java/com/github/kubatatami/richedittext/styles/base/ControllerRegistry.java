@@ -0,0 +1,47 @@
+package com.github.kubatatami.richedittext.styles.base;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ControllerRegistry {
+
+    private final Collection<SpanController<?, ?>> controllers;
+
+    private final Map<Class<?>, SpanController<?, ?>[]> candidates = new HashMap<>();
+
+    public ControllerRegistry(Collection<SpanController<?, ?>> controllers) {
+        this.controllers = controllers;
+    }
+
+    public SpanController<?, ?> getController(Object span) {
+        for (SpanController<?, ?> controller : getCandidates(span.getClass())) {
+            if (controller.acceptSpan(span)) {
+                return controller;
+            }
+        }
+        return null;
+    }
+
+    public void invalidate() {
+        candidates.clear();
+    }
+
+    private SpanController<?, ?>[] getCandidates(Class<?> spanClass) {
+        SpanController<?, ?>[] result = candidates.get(spanClass);
+        if (result == null) {
+            List<SpanController<?, ?>> list = new ArrayList<>();
+            for (SpanController<?, ?> controller : controllers) {
+                if (controller.acceptSpanClass(spanClass)) {
+                    list.add(controller);
+                }
+            }
+            result = list.toArray(new SpanController<?, ?>[list.size()]);
+            candidates.put(spanClass, result);
+        }
+        return result;
+    }
+
+}
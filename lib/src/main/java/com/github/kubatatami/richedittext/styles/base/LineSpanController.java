@@ -35,7 +35,8 @@ public abstract class LineSpanController<T, Z> extends MultiSpanController<T, Z>
     public void checkAfterChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive) {
         LineInfo lineInfo;
         final Editable editable = editText.getEditableText();
-        int start = 0;
+        LineInfo dirtyLineInfo = LineInfo.getDirtyLineInfo(editable, styleSelectionInfo);
+        int start = dirtyLineInfo.start;
         do {
             lineInfo = LineInfo.getLineInfo(editable, start, start);
             for (Object span : editable.getSpans(lineInfo.start, lineInfo.end, clazz)) {
@@ -49,7 +50,17 @@ public abstract class LineSpanController<T, Z> extends MultiSpanController<T, Z>
                 }
             }
             start = lineInfo.end + 1;
-        } while (lineInfo.end < editText.length());
+        } while (lineInfo.end < dirtyLineInfo.end);
+        super.checkAfterChange(editText, styleSelectionInfo, passive);
+    }
+
+    @Override
+    public int compactSpans(Editable editable, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        return 0;
+    }
+
+    @Override
+    public void checkSelectionChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive) {
         super.checkAfterChange(editText, styleSelectionInfo, passive);
     }
 
@@ -15,6 +15,8 @@ public abstract class MultiSpanController<T, Z> extends SpanController<T, Z> {
 
     SpanInfo<Z> spanInfo;
 
+    private final ValueCache<Z> valueCache = new ValueCache<>();
+
     private Z value;
 
     protected MultiSpanController(Class<T> clazz, String tagName) {
@@ -95,6 +97,16 @@ public abstract class MultiSpanController<T, Z> extends SpanController<T, Z> {
         }
     }
 
+    @Override
+    public int compactSpans(Editable editable, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        return mergeSpans(editable, styleSelectionInfo, start, end);
+    }
+
+    @Override
+    protected boolean isMergeable(T span, T other) {
+        return getValueFromSpan(span).equals(getValueFromSpan(other));
+    }
+
     @Override
     public void checkAfterChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive) {
         Z newValue = getCurrentValue(editText, styleSelectionInfo);
@@ -112,18 +124,24 @@ public abstract class MultiSpanController<T, Z> extends SpanController<T, Z> {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public Z getCurrentValue(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo) {
-        T[] spans = editText.getText().getSpans(styleSelectionInfo.realSelectionStart, styleSelectionInfo.realSelectionEnd, getClazz());
-        spans = (T[]) filter(spans).toArray();
-        Z newValue = spans.length > 0 ? getValueFromSpan(spans[0]) : getDefaultValue(editText);
-        if (spans.length > 1 && styleSelectionInfo.realSelectionStart == styleSelectionInfo.realSelectionEnd) {
-            if (editText.getText().getSpanFlags(spans[0]) == Spanned.SPAN_INCLUSIVE_EXCLUSIVE) {
-                newValue = getValueFromSpan(spans[1]);
+        ValueCache.Entry<Z> entry = valueCache.find(editText.getText(), styleSelectionInfo);
+        if (entry != null) {
+            return entry.value;
+        }
+        return valueCache.put(editText.getText(), styleSelectionInfo, computeCurrentValue(editText, styleSelectionInfo));
+    }
+
+    private Z computeCurrentValue(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo) {
+        List<T> spans = getSpans(editText.getText(), styleSelectionInfo, styleSelectionInfo.realSelectionStart, styleSelectionInfo.realSelectionEnd);
+        Z newValue = spans.size() > 0 ? getValueFromSpan(spans.get(0)) : getDefaultValue(editText);
+        if (spans.size() > 1 && styleSelectionInfo.realSelectionStart == styleSelectionInfo.realSelectionEnd) {
+            if (editText.getText().getSpanFlags(spans.get(0)) == Spanned.SPAN_INCLUSIVE_EXCLUSIVE) {
+                newValue = getValueFromSpan(spans.get(1));
             } else {
-                newValue = getValueFromSpan(spans[0]);
+                newValue = getValueFromSpan(spans.get(0));
             }
-        } else if (spans.length > 1) {
+        } else if (spans.size() > 1) {
             for (T span : spans) {
                 Z value = getValueFromSpan(span);
                 if (!value.equals(newValue)) {
@@ -131,9 +149,9 @@ public abstract class MultiSpanController<T, Z> extends SpanController<T, Z> {
                     break;
                 }
             }
-        } else if (spans.length == 1 && !getValueFromSpan(spans[0]).equals(getDefaultValue(editText))) {
-            int spanStart = editText.getText().getSpanStart(spans[0]);
-            int spanEnd = editText.getText().getSpanEnd(spans[0]);
+        } else if (spans.size() == 1 && !getValueFromSpan(spans.get(0)).equals(getDefaultValue(editText))) {
+            int spanStart = editText.getText().getSpanStart(spans.get(0));
+            int spanEnd = editText.getText().getSpanEnd(spans.get(0));
             if (spanStart > styleSelectionInfo.realSelectionStart || spanEnd < styleSelectionInfo.realSelectionEnd) {
                 newValue = getMultiValue();
             }
@@ -141,6 +159,11 @@ public abstract class MultiSpanController<T, Z> extends SpanController<T, Z> {
         return newValue;
     }
 
+    @Override
+    public Z getValue() {
+        return value;
+    }
+
     @Override
     public void checkBeforeChange(final Editable editable, StyleSelectionInfo styleSelectionInfo, boolean added) {
         if (spanInfo != null && styleSelectionInfo.selectionStart == styleSelectionInfo.selectionEnd
@@ -6,10 +6,15 @@ import android.text.Spanned;
 
 import com.github.kubatatami.richedittext.BaseRichEditText;
 import com.github.kubatatami.richedittext.modules.StyleSelectionInfo;
+import com.github.kubatatami.richedittext.other.SpanUtil;
+import com.github.kubatatami.richedittext.utils.ComposingSpanFactory;
+import com.github.kubatatami.richedittext.utils.SpanIndex;
 
 import org.xml.sax.Attributes;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +22,8 @@ public abstract class SpanController<T, Z> {
 
     final static int defaultFlags = Spanned.SPAN_INCLUSIVE_INCLUSIVE;
 
+    private final static int SPAN_END_MASK = 0x03;
+
     protected final Class<T> clazz;
 
     protected final String tagName;
@@ -39,6 +46,76 @@ public abstract class SpanController<T, Z> {
         return result;
     }
 
+    @SuppressWarnings("unchecked")
+    protected List<T> getSpans(Spanned text, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        if (styleSelectionInfo.spans == null) {
+            SpanIndex spanIndex = start <= 0 && end >= text.length() ? ComposingSpanFactory.getSpanIndex(text) : null;
+            return filter(spanIndex != null ? spanIndex.getSpans(getClazz()) : text.getSpans(start, end, getClazz()));
+        }
+        List<T> result = new ArrayList<>();
+        for (Object span : styleSelectionInfo.spans) {
+            if (getClazz().isInstance(span) && acceptSpan(span) && SpanUtil.isInRange(text, span, start, end)) {
+                result.add((T) span);
+            }
+        }
+        return result;
+    }
+
+    public int compactSpans(Editable editable, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        return 0;
+    }
+
+    protected boolean isMergeable(T span, T other) {
+        return true;
+    }
+
+    protected int mergeSpans(final Editable editable, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        List<T> spans = filter(editable.getSpans(start, end, getClazz()));
+        Collections.sort(spans, new Comparator<T>() {
+            @Override
+            public int compare(T span1, T span2) {
+                return editable.getSpanStart(span1) - editable.getSpanStart(span2);
+            }
+        });
+        int removed = 0;
+        for (int i = 0; i < spans.size(); i++) {
+            T span = spans.get(i);
+            if (span == null || editable.getSpanStart(span) == editable.getSpanEnd(span)) {
+                continue;
+            }
+            int spanStart = editable.getSpanStart(span);
+            int spanEnd = editable.getSpanEnd(span);
+            int flags = editable.getSpanFlags(span);
+            boolean merged = false;
+            for (int j = i + 1; j < spans.size(); j++) {
+                T other = spans.get(j);
+                if (other == null) {
+                    continue;
+                }
+                int otherStart = editable.getSpanStart(other);
+                int otherEnd = editable.getSpanEnd(other);
+                if (otherStart > spanEnd) {
+                    break;
+                } else if (otherStart == otherEnd || !isMergeable(span, other) || (otherStart == spanEnd
+                        && (spanEnd == styleSelectionInfo.realSelectionStart || spanEnd == styleSelectionInfo.realSelectionEnd))) {
+                    continue;
+                }
+                if (otherEnd > spanEnd) {
+                    spanEnd = otherEnd;
+                    flags = (flags & ~SPAN_END_MASK) | (editable.getSpanFlags(other) & SPAN_END_MASK);
+                }
+                editable.removeSpan(other);
+                spans.set(j, null);
+                merged = true;
+                removed++;
+            }
+            if (merged) {
+                editable.setSpan(span, spanStart, spanEnd, flags);
+            }
+        }
+        return removed;
+    }
+
     public boolean checkSpans(SpannableStringBuilder text, Class kind, int i) {
         Object[] objs = text.getSpans(i, i, kind);
         for (Object obj : objs) {
@@ -76,6 +153,10 @@ public abstract class SpanController<T, Z> {
         return span.getClass().equals(clazz);
     }
 
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return true;
+    }
+
     public Class<T> getClazz() {
         return clazz;
     }
@@ -88,6 +169,12 @@ public abstract class SpanController<T, Z> {
 
     public abstract void checkAfterChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive);
 
+    public abstract Z getValue();
+
+    public void checkSelectionChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive) {
+        checkAfterChange(editText, styleSelectionInfo, passive);
+    }
+
     public abstract String beginTag(Object span, boolean continuation, Object[] spans);
 
     public abstract T createSpanFromTag(String tag, Map<String, String> styleMap, Attributes attributes);
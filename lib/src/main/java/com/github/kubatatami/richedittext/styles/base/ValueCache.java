@@ -0,0 +1,73 @@
+package com.github.kubatatami.richedittext.styles.base;
+
+import com.github.kubatatami.richedittext.modules.StyleSelectionInfo;
+import com.github.kubatatami.richedittext.utils.ComposingSpanFactory;
+
+class ValueCache<Z> {
+
+    private static final int SIZE = 2;
+
+    @SuppressWarnings("unchecked")
+    private final Entry<Z>[] entries = new Entry[SIZE];
+
+    private int next;
+
+    Entry<Z> find(CharSequence text, StyleSelectionInfo styleSelectionInfo) {
+        long version = ComposingSpanFactory.getVersion(text);
+        if (version == -1) {
+            return null;
+        }
+        for (Entry<Z> entry : entries) {
+            if (entry != null && entry.matches(text, version, styleSelectionInfo)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    Z put(CharSequence text, StyleSelectionInfo styleSelectionInfo, Z value) {
+        long version = ComposingSpanFactory.getVersion(text);
+        if (version != -1) {
+            entries[next] = new Entry<>(text, version, styleSelectionInfo, value);
+            next = (next + 1) % SIZE;
+        }
+        return value;
+    }
+
+    static class Entry<Z> {
+
+        final CharSequence text;
+
+        final long version;
+
+        final int selectionStart;
+
+        final int selectionEnd;
+
+        final int realSelectionStart;
+
+        final int realSelectionEnd;
+
+        final boolean selection;
+
+        final Z value;
+
+        Entry(CharSequence text, long version, StyleSelectionInfo styleSelectionInfo, Z value) {
+            this.text = text;
+            this.version = version;
+            this.selectionStart = styleSelectionInfo.selectionStart;
+            this.selectionEnd = styleSelectionInfo.selectionEnd;
+            this.realSelectionStart = styleSelectionInfo.realSelectionStart;
+            this.realSelectionEnd = styleSelectionInfo.realSelectionEnd;
+            this.selection = styleSelectionInfo.selection;
+            this.value = value;
+        }
+
+        boolean matches(CharSequence text, long version, StyleSelectionInfo styleSelectionInfo) {
+            return this.text == text && this.version == version
+                    && selectionStart == styleSelectionInfo.selectionStart && selectionEnd == styleSelectionInfo.selectionEnd
+                    && realSelectionStart == styleSelectionInfo.realSelectionStart
+                    && realSelectionEnd == styleSelectionInfo.realSelectionEnd && selection == styleSelectionInfo.selection;
+        }
+    }
+}
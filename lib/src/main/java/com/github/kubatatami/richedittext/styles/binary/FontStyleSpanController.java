@@ -42,6 +42,11 @@ public abstract class FontStyleSpanController extends BinaryFontSpanController<F
         return span instanceof RichStyleSpan && ((RichStyleSpan) span).getStyle() == typeface;
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return RichStyleSpan.class.isAssignableFrom(spanClass);
+    }
+
     @Override
     public RichStyleSpan add(Editable editable, int selectionStart, int selectionEnd, int flags) {
         RichStyleSpan result = createSpan();
@@ -16,6 +16,11 @@ public class StrikeThroughSpanController extends BinaryFontSpanController<Strike
         super(RichStrikethroughSpan.class, "strike");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
     @Override
     public RichStrikethroughSpan createSpanFromTag(String tag, Map<String, String> styleMap, Attributes attributes) {
         if (tag.equals("strike") || (tag.equals("span") && containsStrikeTroughStyle(styleMap))) {
@@ -16,6 +16,11 @@ public class UnderlineSpanController extends BinaryFontSpanController<UnderlineS
         super(RichUnderlineSpan.class, "u");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
 
     @Override
     public RichUnderlineSpan createSpanFromTag(String tag, Map<String, String> styleMap, Attributes attributes) {
@@ -23,6 +23,11 @@ public class AlignmentSpanController extends LineSpanController<AlignmentSpanCon
         super(RichAlignmentSpanStandard.class, "div");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
     public static String beginStyle(Object span) {
         Layout.Alignment spanValue = ((RichAlignmentSpanStandard) span).getAlignment();
         String alignValue;
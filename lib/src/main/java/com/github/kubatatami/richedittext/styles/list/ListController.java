@@ -3,6 +3,7 @@ package com.github.kubatatami.richedittext.styles.list;
 import android.text.Editable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.TextUtils;
 
 import com.github.kubatatami.richedittext.BaseRichEditText;
 import com.github.kubatatami.richedittext.modules.LineInfo;
@@ -41,6 +42,11 @@ public class ListController<T extends ListItemSpan> extends BinarySpanController
         return (span.getClass().equals(clazz) && ((ListSpan) span).getInternalClazz().equals(internalClazz)) || span.getClass().equals(internalClazz);
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz) || spanClass.equals(internalClazz);
+    }
+
     @Override
     public Class<?> spanFromEndTag(String tag) {
         if (tag.equals(tagName)) {
@@ -165,23 +171,28 @@ public class ListController<T extends ListItemSpan> extends BinarySpanController
 
     @Override
     public void checkAfterChange(BaseRichEditText editText, StyleSelectionInfo styleSelectionInfo, boolean passive) {
+        LineInfo dirtyLineInfo = LineInfo.getDirtyLineInfo(editText.getEditableText(), styleSelectionInfo);
+        boolean listEnded = false;
         if (!passive) {
             Editable text = editText.getEditableText();
-            ListSpan[] spans = text.getSpans(0, text.length(), ListSpan.class);
+            ListSpan[] spans = text.getSpans(dirtyLineInfo.start, dirtyLineInfo.end, ListSpan.class);
             for (ListSpan span : spans) {
                 if (span.getInternalClazz().equals(internalClazz)) {
                     int start = text.getSpanStart(span);
                     int end = text.getSpanEnd(span);
                     int flags = text.getSpanFlags(span);
+                    int searchStart = Math.max(start, dirtyLineInfo.start - 2);
+                    int searchEnd = Math.min(end, dirtyLineInfo.end + 2);
                     int index;
-                    int doubleEnterIndex = text.toString().substring(start, end).indexOf("\n\n");
-                    if (doubleEnterIndex != -1 && doubleEnterIndex + start + 2 == end) {
+                    int doubleEnterIndex = indexOf(text, "\n\n", searchStart, searchEnd);
+                    if (doubleEnterIndex != -1 && doubleEnterIndex + 2 == end) {
                         index = doubleEnterIndex;
                     } else {
-                        index = text.toString().substring(start, end).indexOf("\n\n\n");
+                        index = indexOf(text, "\n\n\n", searchStart, searchEnd);
                     }
                     if (index != -1) {
-                        endList(editText, index, styleSelectionInfo, text, span, start);
+                        endList(editText, index - start, styleSelectionInfo, text, span, start);
+                        listEnded = true;
                     } else if (start == end) {
                         removeSpan(span, text);
                     } else {
@@ -194,10 +205,27 @@ public class ListController<T extends ListItemSpan> extends BinarySpanController
                 }
             }
         }
-        checkInternalSpans(editText.getEditableText());
+        if (listEnded) {
+            checkInternalSpans(editText.getEditableText());
+        } else {
+            checkInternalSpans(editText.getEditableText(), dirtyLineInfo.start, dirtyLineInfo.end);
+        }
         super.checkAfterChange(editText, styleSelectionInfo, passive);
     }
 
+    private static int indexOf(CharSequence text, String value, int start, int end) {
+        for (int i = start; i <= end - value.length(); i++) {
+            int j = 0;
+            while (j < value.length() && text.charAt(i + j) == value.charAt(j)) {
+                j++;
+            }
+            if (j == value.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private void performInternal(Editable editable, StyleSelectionInfo styleSelectionInfo) {
         boolean value = getCurrentValue(editable, styleSelectionInfo);
         clearStyles(editable, styleSelectionInfo);
@@ -240,16 +268,49 @@ public class ListController<T extends ListItemSpan> extends BinarySpanController
     }
 
     private void checkInternalSpans(Editable text) {
-        List<ListSpan> spans = filter(text.getSpans(0, text.length(), ListSpan.class));
+        checkInternalSpans(text, 0, text.length());
+    }
+
+    private void checkInternalSpans(Editable text, int start, int end) {
+        for (T internalSpan : text.getSpans(start, end, internalClazz)) {
+            if (!isInsideList(text, internalSpan, internalClazz)) {
+                start = Math.min(start, text.getSpanStart(internalSpan));
+                end = Math.max(end, text.getSpanEnd(internalSpan));
+                text.removeSpan(internalSpan);
+            }
+        }
+        for (TopMarginSpan internalSpan : text.getSpans(start, end, TopMarginSpan.class)) {
+            if (!isInsideList(text, internalSpan, null)) {
+                text.removeSpan(internalSpan);
+            }
+        }
+        for (BottomMarginSpan internalSpan : text.getSpans(start, end, BottomMarginSpan.class)) {
+            if (!isInsideList(text, internalSpan, null)) {
+                text.removeSpan(internalSpan);
+            }
+        }
+        List<ListSpan> spans = filter(text.getSpans(start, end, ListSpan.class));
         for (ListSpan span : spans) {
             checkInternalSpan(text, span);
         }
     }
 
+    private boolean isInsideList(Editable text, Object internalSpan, Class<?> internalClass) {
+        int spanStart = text.getSpanStart(internalSpan);
+        int spanEnd = text.getSpanEnd(internalSpan);
+        for (ListSpan span : text.getSpans(spanStart, spanEnd, ListSpan.class)) {
+            if ((internalClass == null || span.getInternalClazz().equals(internalClass))
+                    && text.getSpanStart(span) <= spanStart && text.getSpanEnd(span) >= spanEnd) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void checkInternalSpan(Editable text, ListSpan span) {
         int spanStart = text.getSpanStart(span);
         int spanEnd = text.getSpanEnd(span);
-        String textStr = text.toString();
+        String textStr = text.subSequence(spanStart, spanEnd).toString();
         for (T internalSpan : text.getSpans(spanStart, spanEnd, internalClazz)) {
             text.removeSpan(internalSpan);
         }
@@ -259,7 +320,7 @@ public class ListController<T extends ListItemSpan> extends BinarySpanController
         for (BottomMarginSpan internalSpan : text.getSpans(spanStart, spanEnd, BottomMarginSpan.class)) {
             text.removeSpan(internalSpan);
         }
-        String[] lines = textStr.substring(spanStart, spanEnd).split("\n");
+        String[] lines = textStr.split("\n");
         int pos = spanStart;
         int i = 0;
         span.setValidSpan(spanStart != spanEnd);
@@ -291,9 +352,8 @@ public class ListController<T extends ListItemSpan> extends BinarySpanController
     private LineInfo getLineInfo(Editable editable, StyleSelectionInfo styleSelectionInfo) {
         int startSel = Math.max(0, Math.min(styleSelectionInfo.realSelectionStart, editable.length()));
         int endSel = Math.max(0, Math.min(styleSelectionInfo.realSelectionEnd, editable.length()));
-        String text = editable.toString();
-        int start = text.substring(0, startSel).lastIndexOf("\n");
-        int end = text.indexOf("\n", endSel);
+        int start = TextUtils.lastIndexOf(editable, '\n', startSel - 1);
+        int end = TextUtils.indexOf(editable, '\n', endSel);
         if (start == -1) {
             start = 0;
         } else {
@@ -15,6 +15,11 @@ public class BackgroundColorSpanController extends FontStyleSpanController<Backg
         super(RichBackgroundColorSpan.class, "span", "background-color");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
     @Override
     public Integer getValueFromSpan(RichBackgroundColorSpan span) {
         return span.getBackgroundColor();
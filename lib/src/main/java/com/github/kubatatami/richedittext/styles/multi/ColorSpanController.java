@@ -15,6 +15,11 @@ public class ColorSpanController extends FontStyleSpanController<ColorSpanContro
         super(RichForegroundColorSpan.class, "span", "color");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
     @Override
     public Integer getValueFromSpan(RichForegroundColorSpan span) {
         return span.getForegroundColor();
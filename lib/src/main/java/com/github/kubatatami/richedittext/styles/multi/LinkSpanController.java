@@ -26,6 +26,11 @@ public class LinkSpanController extends MultiSpanController<LinkSpanController.R
         super(RichURLSpan.class, "a");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
     @Override
     public Link getValueFromSpan(RichURLSpan span) {
         return span.getUrlModel();
@@ -45,6 +50,11 @@ public class LinkSpanController extends MultiSpanController<LinkSpanController.R
         return result;
     }
 
+    @Override
+    public int compactSpans(Editable editable, StyleSelectionInfo styleSelectionInfo, int start, int end) {
+        return 0;
+    }
+
     @Override
     public Link getDefaultValue(BaseRichEditText editText) {
         return null;
@@ -15,6 +15,11 @@ public class SizeSpanController extends FontStyleSpanController<SizeSpanControll
         super(RichAbsoluteSizeSpan.class, "span", "font-size");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
     @Override
     public Float getValueFromSpan(RichAbsoluteSizeSpan span) {
         return span.getValue();
@@ -13,6 +13,7 @@ import com.github.kubatatami.richedittext.BaseRichEditText;
 import com.github.kubatatami.richedittext.other.FontCache;
 import com.github.kubatatami.richedittext.other.StringUtils;
 import com.github.kubatatami.richedittext.styles.base.MultiSpanController;
+import com.github.kubatatami.richedittext.styles.base.RichSpan;
 
 import org.xml.sax.Attributes;
 
@@ -31,6 +32,11 @@ public class TypefaceSpanController extends MultiSpanController<TypefaceSpanCont
         super(FontSpan.class, "span");
     }
 
+    @Override
+    public boolean acceptSpanClass(Class<?> spanClass) {
+        return spanClass.equals(clazz);
+    }
+
     @NonNull
     public static List<Font> getFonts() {
         return new ArrayList<>(fontMap.values());
@@ -227,7 +233,7 @@ public class TypefaceSpanController extends MultiSpanController<TypefaceSpanCont
     }
 
     @SuppressLint("ParcelCreator")
-    public static class FontSpan extends TypefaceSpan {
+    public static class FontSpan extends TypefaceSpan implements RichSpan {
 
         private final Font font;
 
@@ -0,0 +1,136 @@
+package com.github.kubatatami.richedittext.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.github.kubatatami.richedittext.BaseRichEditText.OnValueChangeListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChangeScheduler<T> {
+
+    private static final long FRAME_MS = 16;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public void add(OnValueChangeListener<T> listener, Mode mode, long intervalMs) {
+        entries.add(new Entry(listener, mode, intervalMs));
+    }
+
+    public void remove(OnValueChangeListener<T> listener) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).listener == listener) {
+                entries.remove(i).cancel();
+            }
+        }
+    }
+
+    public void dispatch(T value) {
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).schedule(value);
+        }
+    }
+
+    public enum Mode {
+        IMMEDIATE, FRAME, DEBOUNCE, THROTTLE
+    }
+
+    private class Entry implements Runnable {
+
+        final OnValueChangeListener<T> listener;
+
+        final Mode mode;
+
+        final long intervalMs;
+
+        T value;
+
+        boolean scheduled;
+
+        long lastRunTime;
+
+        Object frameCallback;
+
+        Entry(OnValueChangeListener<T> listener, Mode mode, long intervalMs) {
+            this.listener = listener;
+            this.mode = mode;
+            this.intervalMs = intervalMs;
+        }
+
+        void schedule(T value) {
+            this.value = value;
+            if (mode == Mode.IMMEDIATE) {
+                run();
+            } else if (mode == Mode.DEBOUNCE) {
+                handler.removeCallbacks(this);
+                handler.postDelayed(this, intervalMs);
+                scheduled = true;
+            } else if (!scheduled) {
+                scheduled = true;
+                if (mode == Mode.FRAME) {
+                    postFrame();
+                } else {
+                    long elapsed = SystemClock.uptimeMillis() - lastRunTime;
+                    handler.postDelayed(this, Math.max(0, intervalMs - elapsed));
+                }
+            }
+        }
+
+        void cancel() {
+            handler.removeCallbacks(this);
+            if (frameCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                FrameCompat.remove(frameCallback);
+            }
+            scheduled = false;
+            value = null;
+        }
+
+        @Override
+        public void run() {
+            T current = value;
+            scheduled = false;
+            value = null;
+            lastRunTime = SystemClock.uptimeMillis();
+            listener.onValueChange(current);
+        }
+
+        private void postFrame() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                if (frameCallback == null) {
+                    frameCallback = FrameCompat.create(this);
+                }
+                FrameCompat.post(frameCallback);
+            } else {
+                handler.postDelayed(this, FRAME_MS);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCompat {
+
+        static Object create(final Runnable runnable) {
+            return new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    runnable.run();
+                }
+            };
+        }
+
+        static void post(Object callback) {
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) callback);
+        }
+
+        static void remove(Object callback) {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) callback);
+        }
+    }
+}
@@ -1,123 +1,395 @@
 package com.github.kubatatami.richedittext.utils;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
+import android.text.NoCopySpan;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.text.style.UnderlineSpan;
 import android.text.style.UpdateLayout;
+import android.view.inputmethod.BaseInputConnection;
 
-import com.github.kubatatami.richedittext.BaseRichEditText.OnValueChangeListener;
 import com.github.kubatatami.richedittext.modules.HistoryModule;
 import com.github.kubatatami.richedittext.modules.InseparableModule;
+import com.github.kubatatami.richedittext.modules.JournalModule;
 import com.github.kubatatami.richedittext.styles.base.RichSpan;
 import com.github.kubatatami.richedittext.styles.binary.UnderlineSpanController;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class ComposingSpanFactory extends Editable.Factory {
 
     private static final String COMPOSING_CLASS_NAME = "android.view.inputmethod.ComposingText";
 
     private final HistoryModule historyModule;
 
-    private OnValueChangeListener<Editable> onSpanChangeListeners;
+    private final JournalModule journalModule;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable spanChangeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliverSpanChanges();
+        }
+    };
+
+    private OnSpanChangeListener onSpanChangeListener;
+
+    private OnSpanRangeChangeListener onSpanRangeChangeListener;
+
+    private Editable pendingEditable;
+
+    private int pendingStart;
+
+    private int pendingEnd;
+
+    private ComposingEditable layoutEditable;
+
+    private int layoutStart;
+
+    private int layoutEnd;
 
-    public ComposingSpanFactory(HistoryModule historyModule) {
+    private int layoutBatchDepth;
+
+    public ComposingSpanFactory(HistoryModule historyModule, JournalModule journalModule) {
         this.historyModule = historyModule;
+        this.journalModule = journalModule;
     }
 
     @Override
     public Editable newEditable(CharSequence source) {
-        return new SpannableStringBuilder(source) {
-
-            @Override
-            public SpannableStringBuilder replace(int start, int end, CharSequence tb, int tbstart, int tbend) {
-                int offset = getStartEqualsLetters(start, end, tb, tbstart, tbend);
-                if (offset > 0) {
-                    Object span = findComposing(tb);
-                    if (span != null) {
-                        int flags = ((Spannable) tb).getSpanFlags(span);
-                        removeSpan(span);
-                        boolean modified = replaceInternal(start + offset, end, tb, tbstart + offset, tbend);
-                        if (!modified) {
-                            setSpan(span, start, start + tbend, flags);
-                        }
-                    } else {
-                        replaceInternal(start + offset, end, tb, tbstart + offset, tbend);
-                    }
-                } else {
-                    replaceInternal(start, end, tb, tbstart, tbend);
-                }
-                removeInvalidSpans();
-                return this;
+        return new ComposingEditable(source);
+    }
+
+    public static long getVersion(CharSequence text) {
+        return text instanceof ComposingEditable ? ((ComposingEditable) text).version : -1;
+    }
+
+    public static SpanIndex getSpanIndex(CharSequence text) {
+        return text instanceof ComposingEditable ? ((ComposingEditable) text).getSpanIndex() : null;
+    }
+
+    public static boolean isComposing(CharSequence text) {
+        return text instanceof ComposingEditable && ((ComposingEditable) text).composing;
+    }
+
+    public static SpanTree getSpanTree(CharSequence text) {
+        return text instanceof ComposingEditable ? ((ComposingEditable) text).getSpanTree() : null;
+    }
+
+    public static int getRichSpanCount(CharSequence text) {
+        return text instanceof ComposingEditable ? ((ComposingEditable) text).getRichSpanCount() : -1;
+    }
+
+    public static void invalidate(CharSequence text) {
+        if (text instanceof ComposingEditable) {
+            ((ComposingEditable) text).version++;
+        }
+    }
+
+    private void onSpanChanged(Editable editable, int start, int end) {
+        if (pendingEditable != null && pendingEditable != editable) {
+            deliverSpanChanges();
+        }
+        if (pendingEditable == null) {
+            pendingEditable = editable;
+            pendingStart = start;
+            pendingEnd = end;
+            handler.post(spanChangeRunnable);
+        } else {
+            pendingStart = Math.min(pendingStart, start);
+            pendingEnd = Math.max(pendingEnd, end);
+        }
+    }
+
+    private void deliverSpanChanges() {
+        handler.removeCallbacks(spanChangeRunnable);
+        Editable editable = pendingEditable;
+        if (editable != null) {
+            pendingEditable = null;
+            onSpanChangeListener.onSpanChange(editable, pendingStart, pendingEnd);
+        }
+    }
+
+    private void invalidateLayout(ComposingEditable editable, int start, int end) {
+        if (layoutEditable != null && layoutEditable != editable) {
+            flushLayout();
+        }
+        if (layoutEditable == null) {
+            layoutEditable = editable;
+            layoutStart = start;
+            layoutEnd = end;
+        } else {
+            layoutStart = Math.min(layoutStart, start);
+            layoutEnd = Math.max(layoutEnd, end);
+        }
+        if (layoutBatchDepth == 0) {
+            flushLayout();
+        }
+    }
+
+    private void flushLayout() {
+        ComposingEditable editable = layoutEditable;
+        if (editable != null) {
+            layoutEditable = null;
+            int length = editable.length();
+            editable.relayout(Math.min(layoutStart, length), Math.min(layoutEnd, length));
+        }
+    }
+
+    public void beginLayoutBatch() {
+        layoutBatchDepth++;
+    }
+
+    public void endLayoutBatch() {
+        if (layoutBatchDepth > 0 && --layoutBatchDepth == 0) {
+            flushLayout();
+        }
+    }
+
+    public boolean cancelSpanChanges() {
+        handler.removeCallbacks(spanChangeRunnable);
+        boolean pending = pendingEditable != null;
+        pendingEditable = null;
+        return pending;
+    }
+
+    public void setOnSpanChangeListener(OnSpanChangeListener onSpanChangeListener) {
+        this.onSpanChangeListener = onSpanChangeListener;
+    }
+
+    public void setOnSpanRangeChangeListener(OnSpanRangeChangeListener onSpanRangeChangeListener) {
+        this.onSpanRangeChangeListener = onSpanRangeChangeListener;
+    }
+
+    private class ComposingEditable extends SpannableStringBuilder {
+
+        private long version;
+
+        private final SpanIndex spanIndex;
+
+        private SpanTree spanTree;
+
+        private final Set<Class<?>> spanTreeChangedClasses = new HashSet<>();
+
+        private int spanTreeChangeStart = Integer.MAX_VALUE;
+
+        private boolean composing;
+
+        ComposingEditable(CharSequence source) {
+            super(source);
+            spanIndex = new SpanIndex(this);
+            if (source instanceof Spanned) {
+                removeInvalidSpans(0, length());
             }
+        }
+
+        SpanIndex getSpanIndex() {
+            return spanIndex;
+        }
 
-            private boolean replaceInternal(int start, int end, CharSequence tb, int tbstart, int tbend) {
-                InseparableModule.RemoveInfo info = InseparableModule.getRemoveInfo(historyModule, this, start, end);
-                super.replace(info.start, info.end, tb, tbstart, tbend);
-                return start != info.start || end != info.end;
+        SpanTree getSpanTree() {
+            if (spanTree == null) {
+                spanTree = new SpanTree(this);
+            } else if (!spanTreeChangedClasses.isEmpty() || spanTreeChangeStart != Integer.MAX_VALUE) {
+                spanTree = new SpanTree(this, spanTree, spanTreeChangedClasses, spanTreeChangeStart);
             }
+            spanTreeChangedClasses.clear();
+            spanTreeChangeStart = Integer.MAX_VALUE;
+            return spanTree;
+        }
 
-            @Override
-            public SpannableStringBuilder delete(int start, int end) {
-                InseparableModule.RemoveInfo info = InseparableModule.getRemoveInfo(historyModule, this, start, end);
-                return super.delete(info.start, info.end);
+        private void onSpanTreeChange(Object span) {
+            if (spanTree != null && !(span instanceof NoCopySpan)) {
+                spanTreeChangedClasses.add(span.getClass());
             }
+        }
+
+        int getRichSpanCount() {
+            return spanIndex.size();
+        }
 
-            void removeInvalidSpans() {
-                for (UnderlineSpan span : getSpans(0, length(), UnderlineSpan.class)) {
-                    if (!(span instanceof UnderlineSpanController.RichUnderlineSpan)) {
-                        removeSpan(span);
+        @Override
+        public void clearSpans() {
+            version++;
+            spanTree = null;
+            super.clearSpans();
+            spanIndex.clear();
+        }
+
+        @Override
+        public SpannableStringBuilder replace(int start, int end, CharSequence tb, int tbstart, int tbend) {
+            version++;
+            composing = tb instanceof Spannable && BaseInputConnection.getComposingSpanStart((Spannable) tb) != -1;
+            int offset = getStartEqualsLetters(start, end, tb, tbstart, tbend);
+            if (offset > 0) {
+                Object span = composing ? findComposing(tb) : null;
+                if (span != null) {
+                    int flags = ((Spannable) tb).getSpanFlags(span);
+                    removeSpan(span);
+                    boolean modified = replaceInternal(start + offset, end, tb, tbstart + offset, tbend);
+                    if (!modified) {
+                        setSpan(span, start, start + tbend, flags);
                     }
+                } else {
+                    replaceInternal(start + offset, end, tb, tbstart + offset, tbend);
                 }
+            } else {
+                replaceInternal(start, end, tb, tbstart, tbend);
             }
+            return this;
+        }
 
-            private Object findComposing(CharSequence text) {
-                if (text instanceof Spannable) {
-                    for (Object span : ((Spannable) text).getSpans(0, text.length(), Object.class)) {
-                        if (span.getClass().getName().equals(COMPOSING_CLASS_NAME)) {
-                            return span;
-                        }
+        private boolean replaceInternal(int start, int end, CharSequence tb, int tbstart, int tbend) {
+            InseparableModule.RemoveInfo info = InseparableModule.getRemoveInfo(historyModule, this, start, end);
+            RichSpan[] removedSpans = info.start != info.end ? getSpans(info.start, info.end, RichSpan.class) : null;
+            spanTreeChangeStart = Math.min(spanTreeChangeStart, info.start);
+            super.replace(info.start, info.end, tb, tbstart, tbend);
+            if (removedSpans != null) {
+                for (RichSpan span : removedSpans) {
+                    if (getSpanStart(span) == -1) {
+                        spanIndex.remove(span);
+                    }
+                }
+            }
+            if (tb instanceof Spanned) {
+                if (spanTree != null) {
+                    for (Object span : ((Spanned) tb).getSpans(tbstart, tbend, Object.class)) {
+                        onSpanTreeChange(span);
+                    }
+                }
+                for (RichSpan span : ((Spanned) tb).getSpans(tbstart, tbend, RichSpan.class)) {
+                    if (getSpanStart(span) != -1) {
+                        spanIndex.add(span);
                     }
                 }
-                return null;
+                removeInvalidSpans(info.start, info.start + tbend - tbstart);
+                journalModule.onSpansInserted(this, info.start, info.start + tbend - tbstart);
             }
+            return start != info.start || end != info.end;
+        }
 
-            int getStartEqualsLetters(int start, int end, CharSequence tb, int tbstart, int tbend) {
-                if (start != end && tbend > tbstart) {
-                    for (int i = 0; i < tbend; i++) {
-                        if (subSequence(start, end).toString().indexOf(tb.subSequence(tbstart, tbend - i).toString()) == 0) {
-                            return tbend - i;
-                        }
+        @Override
+        public SpannableStringBuilder delete(int start, int end) {
+            InseparableModule.RemoveInfo info = InseparableModule.getRemoveInfo(historyModule, this, start, end);
+            return super.delete(info.start, info.end);
+        }
+
+        void removeInvalidSpans(int start, int end) {
+            for (UnderlineSpan span : getSpans(start, end, UnderlineSpan.class)) {
+                if (!(span instanceof UnderlineSpanController.RichUnderlineSpan)) {
+                    removeSpan(span);
+                }
+            }
+        }
+
+        private Object findComposing(CharSequence text) {
+            if (text instanceof Spannable) {
+                for (Object span : ((Spannable) text).getSpans(0, text.length(), Object.class)) {
+                    if (span.getClass().getName().equals(COMPOSING_CLASS_NAME)) {
+                        return span;
                     }
                 }
-                return 0;
             }
+            return null;
+        }
 
-            @Override
-            public void setSpan(Object what, int start, int end, int flags) {
-                if (!(what instanceof UnderlineSpan && !(what instanceof UnderlineSpanController.RichUnderlineSpan))) {
-                    super.setSpan(what, start, end, flags);
+        int getStartEqualsLetters(int start, int end, CharSequence tb, int tbstart, int tbend) {
+            if (start != end && tbend > tbstart) {
+                int length = Math.min(end - start, tbend - tbstart);
+                int prefix = 0;
+                while (prefix < length && charAt(start + prefix) == tb.charAt(tbstart + prefix)) {
+                    prefix++;
                 }
+                return tbstart + prefix;
+            }
+            return 0;
+        }
+
+        @Override
+        public void setSpan(Object what, int start, int end, int flags) {
+            boolean tracked = historyModule.isTracking(this, what);
+            int oldStart = tracked ? getSpanStart(what) : -1;
+            int oldEnd = tracked ? getSpanEnd(what) : -1;
+            int oldFlags = tracked ? getSpanFlags(what) : 0;
+            if (!(what instanceof NoCopySpan)) {
+                version++;
+            }
+            int previousStart = what instanceof RichSpan ? getSpanStart(what) : -1;
+            int previousEnd = what instanceof RichSpan ? getSpanEnd(what) : -1;
+            if (!(what instanceof UnderlineSpan && !(what instanceof UnderlineSpanController.RichUnderlineSpan))) {
+                super.setSpan(what, start, end, flags);
+                onSpanTreeChange(what);
                 if (what instanceof RichSpan) {
-                    onSpanChangeListeners.onValueChange(this);
-                    if (what instanceof UpdateLayout) {
-                        workaround();
-                    }
+                    spanIndex.add(what);
                 }
             }
+            if (tracked) {
+                historyModule.onSpanChanged(this, what, oldStart, oldEnd, oldFlags);
+            }
+            if (journalModule.isTracking(this, what)) {
+                journalModule.onSpanChanged(this, what);
+            }
+            if (what instanceof RichSpan) {
+                onSpanRangeChangeListener.onSpanRangeChange(this, previousStart == -1 ? start : Math.min(previousStart, start),
+                        Math.max(previousEnd, end));
+                onSpanChanged(this, start, end);
+                if (what instanceof UpdateLayout) {
+                    invalidateLayout(this, start, end);
+                }
+            }
+        }
 
-            private void workaround() {
-                TextWatcher[] spans = getSpans(0, length(), TextWatcher.class);
-                for (TextWatcher span : spans) {
-                    if (span.getClass().getName().contains("DynamicLayout")) {
-                        span.onTextChanged(this, 0, length(), length());
-                    }
+        @Override
+        public void removeSpan(Object what) {
+            boolean tracked = historyModule.isTracking(this, what);
+            int oldStart = tracked ? getSpanStart(what) : -1;
+            int oldEnd = tracked ? getSpanEnd(what) : -1;
+            int oldFlags = tracked ? getSpanFlags(what) : 0;
+            if (what instanceof RichSpan) {
+                onSpanRangeChangeListener.onSpanRangeChange(this, getSpanStart(what), getSpanEnd(what));
+            }
+            if (!(what instanceof NoCopySpan)) {
+                version++;
+            }
+            super.removeSpan(what);
+            onSpanTreeChange(what);
+            if (what instanceof RichSpan) {
+                spanIndex.remove(what);
+            }
+            if (tracked) {
+                historyModule.onSpanChanged(this, what, oldStart, oldEnd, oldFlags);
+            }
+            if (journalModule.isTracking(this, what)) {
+                journalModule.onSpanChanged(this, what);
+            }
+        }
+
+        private void relayout(int start, int end) {
+            int paragraphStart = start > 0 ? TextUtils.lastIndexOf(this, '\n', start - 1) + 1 : 0;
+            int paragraphEnd = end < length() ? TextUtils.indexOf(this, '\n', end) : -1;
+            paragraphEnd = paragraphEnd == -1 ? length() : paragraphEnd + 1;
+            int count = paragraphEnd - paragraphStart;
+            TextWatcher[] spans = getSpans(0, length(), TextWatcher.class);
+            for (TextWatcher span : spans) {
+                if (span.getClass().getName().contains("DynamicLayout")) {
+                    span.onTextChanged(this, paragraphStart, count, count);
                 }
             }
-        };
+        }
+    }
+
+    public interface OnSpanChangeListener {
+        void onSpanChange(Editable editable, int start, int end);
     }
 
-    public void setOnSpanChangeListeners(OnValueChangeListener<Editable> onSpanChangeListeners) {
-        this.onSpanChangeListeners = onSpanChangeListeners;
+    public interface OnSpanRangeChangeListener {
+        void onSpanRangeChange(Editable editable, int start, int end);
     }
 }
@@ -198,7 +198,7 @@ public class HtmlToSpannedConverter extends BaseContentHandler {
     }
 
     @NonNull
-    private Map<String, String> getStyleStringMap(String styles) {
+    public static Map<String, String> getStyleStringMap(String styles) {
         Map<String, String> styleMap = new HashMap<>();
         if (styles != null) {
             for (String style : styles.split(";")) {
@@ -0,0 +1,89 @@
+package com.github.kubatatami.richedittext.utils;
+
+import android.text.Spanned;
+
+import com.github.kubatatami.richedittext.styles.base.RichSpan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SpanIndex {
+
+    private final Map<Object, Long> sequences = new IdentityHashMap<>();
+
+    private final Map<Class<?>, TreeMap<Long, Object>> spansByClass = new HashMap<>();
+
+    private final Map<Class<?>, Object[]> queryCache = new HashMap<>();
+
+    private long nextSequence;
+
+    SpanIndex(Spanned text) {
+        for (Object span : text.getSpans(0, text.length(), RichSpan.class)) {
+            add(span);
+        }
+    }
+
+    void add(Object span) {
+        if (!sequences.containsKey(span)) {
+            long sequence = nextSequence++;
+            sequences.put(span, sequence);
+            TreeMap<Long, Object> spans = spansByClass.get(span.getClass());
+            if (spans == null) {
+                spans = new TreeMap<>();
+                spansByClass.put(span.getClass(), spans);
+            }
+            spans.put(sequence, span);
+            queryCache.clear();
+        }
+    }
+
+    void remove(Object span) {
+        Long sequence = sequences.remove(span);
+        if (sequence != null) {
+            TreeMap<Long, Object> spans = spansByClass.get(span.getClass());
+            spans.remove(sequence);
+            if (spans.isEmpty()) {
+                spansByClass.remove(span.getClass());
+            }
+            queryCache.clear();
+        }
+    }
+
+    void clear() {
+        sequences.clear();
+        spansByClass.clear();
+        queryCache.clear();
+    }
+
+    int size() {
+        return sequences.size();
+    }
+
+    public Object[] getSpans(Class<?> clazz) {
+        Object[] result = queryCache.get(clazz);
+        if (result == null) {
+            List<TreeMap<Long, Object>> matches = new ArrayList<>();
+            for (Map.Entry<Class<?>, TreeMap<Long, Object>> entry : spansByClass.entrySet()) {
+                if (clazz.isAssignableFrom(entry.getKey())) {
+                    matches.add(entry.getValue());
+                }
+            }
+            if (matches.size() == 1) {
+                result = matches.get(0).values().toArray();
+            } else {
+                TreeMap<Long, Object> merged = new TreeMap<>();
+                for (TreeMap<Long, Object> spans : matches) {
+                    merged.putAll(spans);
+                }
+                result = merged.values().toArray();
+            }
+            queryCache.put(clazz, result);
+        }
+        return result;
+    }
+
+}
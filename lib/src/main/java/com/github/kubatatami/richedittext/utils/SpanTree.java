@@ -0,0 +1,175 @@
+package com.github.kubatatami.richedittext.utils;
+
+import android.text.NoCopySpan;
+import android.text.Spanned;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SpanTree {
+
+    private final Map<Class<?>, ClassTree> trees = new LinkedHashMap<>();
+
+    SpanTree(Spanned text) {
+        Map<Class<?>, List<Object>> spansByClass = new LinkedHashMap<>();
+        for (Object span : text.getSpans(0, text.length(), Object.class)) {
+            if (!(span instanceof NoCopySpan)) {
+                List<Object> list = spansByClass.get(span.getClass());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    spansByClass.put(span.getClass(), list);
+                }
+                list.add(span);
+            }
+        }
+        for (Map.Entry<Class<?>, List<Object>> entry : spansByClass.entrySet()) {
+            trees.put(entry.getKey(), new ClassTree(text, entry.getKey(), entry.getValue()));
+        }
+    }
+
+    SpanTree(Spanned text, SpanTree previous, Set<Class<?>> changedClasses, int textChangeStart) {
+        Set<Class<?>> rebuild = new HashSet<>(changedClasses);
+        for (Map.Entry<Class<?>, ClassTree> entry : previous.trees.entrySet()) {
+            if (!rebuild.contains(entry.getKey()) && entry.getValue().maxEnd() < textChangeStart) {
+                trees.put(entry.getKey(), entry.getValue());
+            } else {
+                rebuild.add(entry.getKey());
+            }
+        }
+        for (Class<?> clazz : rebuild) {
+            if (!NoCopySpan.class.isAssignableFrom(clazz)) {
+                List<Object> spans = new ArrayList<>();
+                for (Object span : text.getSpans(0, text.length(), clazz)) {
+                    if (span.getClass() == clazz) {
+                        spans.add(span);
+                    }
+                }
+                if (!spans.isEmpty()) {
+                    trees.put(clazz, new ClassTree(text, clazz, spans));
+                }
+            }
+        }
+    }
+
+    public void forEachSpan(int start, int end, Class<?> kind, SpanVisitor visitor) {
+        for (ClassTree tree : trees.values()) {
+            if (kind.isAssignableFrom(tree.clazz)) {
+                tree.query(0, tree.size(), start, end, visitor);
+            }
+        }
+    }
+
+    public int nextSpanTransition(int start, int limit, Class<?> kind) {
+        for (ClassTree tree : trees.values()) {
+            if (kind.isAssignableFrom(tree.clazz)) {
+                limit = Math.min(limit, tree.next(tree.starts, start));
+                limit = Math.min(limit, tree.next(tree.sortedEnds, start));
+            }
+        }
+        return limit;
+    }
+
+    public interface SpanVisitor {
+        void visit(Object span);
+    }
+
+    private static class ClassTree {
+
+        final Class<?> clazz;
+
+        final Object[] spans;
+
+        final int[] starts;
+
+        final int[] ends;
+
+        final int[] maxEnds;
+
+        final int[] sortedEnds;
+
+        ClassTree(final Spanned text, Class<?> clazz, List<Object> classSpans) {
+            this.clazz = clazz;
+            spans = classSpans.toArray();
+            Arrays.sort(spans, new Comparator<Object>() {
+                @Override
+                public int compare(Object span1, Object span2) {
+                    return text.getSpanStart(span1) - text.getSpanStart(span2);
+                }
+            });
+            int size = spans.length;
+            starts = new int[size];
+            ends = new int[size];
+            maxEnds = new int[size];
+            for (int i = 0; i < size; i++) {
+                starts[i] = text.getSpanStart(spans[i]);
+                ends[i] = text.getSpanEnd(spans[i]);
+            }
+            sortedEnds = ends.clone();
+            Arrays.sort(sortedEnds);
+            computeMaxEnd(0, size);
+        }
+
+        int size() {
+            return spans.length;
+        }
+
+        int maxEnd() {
+            return sortedEnds[sortedEnds.length - 1];
+        }
+
+        private int computeMaxEnd(int lo, int hi) {
+            if (lo >= hi) {
+                return -1;
+            }
+            int mid = (lo + hi) >>> 1;
+            maxEnds[mid] = Math.max(ends[mid], Math.max(computeMaxEnd(lo, mid), computeMaxEnd(mid + 1, hi)));
+            return maxEnds[mid];
+        }
+
+        void query(int lo, int hi, int start, int end, SpanVisitor visitor) {
+            if (lo >= hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            if (maxEnds[mid] < start) {
+                return;
+            }
+            query(lo, mid, start, end, visitor);
+            if (starts[mid] > end) {
+                return;
+            }
+            if (isInRange(starts[mid], ends[mid], start, end)) {
+                visitor.visit(spans[mid]);
+            }
+            query(mid + 1, hi, start, end, visitor);
+        }
+
+        int next(int[] positions, int start) {
+            int lo = 0;
+            int hi = positions.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (positions[mid] <= start) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo < positions.length ? positions[lo] : Integer.MAX_VALUE;
+        }
+
+        private boolean isInRange(int spanStart, int spanEnd, int start, int end) {
+            if (spanEnd < start || spanStart > end) {
+                return false;
+            }
+            return spanStart == spanEnd || start == end || (spanStart != end && spanEnd != start);
+        }
+    }
+
+}
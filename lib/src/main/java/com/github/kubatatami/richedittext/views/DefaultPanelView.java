@@ -25,6 +25,7 @@ import android.widget.TextView;
 import com.github.kubatatami.richedittext.BaseRichEditText;
 import com.github.kubatatami.richedittext.R;
 import com.github.kubatatami.richedittext.RichEditText;
+import com.github.kubatatami.richedittext.StyleState;
 import com.github.kubatatami.richedittext.modules.HistoryModule;
 import com.github.kubatatami.richedittext.styles.multi.SizeSpanController;
 
@@ -433,28 +434,24 @@ public class DefaultPanelView extends RelativeLayout {
             }
         });
 
-        richEditText.addOnBoldChangeListener(new BaseRichEditText.OnValueChangeListener<Boolean>() {
+        richEditText.addOnStyleStateChangeListener(new BaseRichEditText.OnValueChangeListener<StyleState>() {
             @Override
-            public void onValueChange(Boolean bold) {
-                boldButton.setChecked(bold);
-            }
-        });
-        richEditText.addOnItalicChangeListener(new BaseRichEditText.OnValueChangeListener<Boolean>() {
-            @Override
-            public void onValueChange(Boolean italic) {
-                italicButton.setChecked(italic);
-            }
-        });
-        richEditText.addOnUnderlineChangeListener(new BaseRichEditText.OnValueChangeListener<Boolean>() {
-            @Override
-            public void onValueChange(Boolean underline) {
-                underlineButton.setChecked(underline);
-            }
-        });
-        richEditText.addOnStrikethroughChangeListener(new BaseRichEditText.OnValueChangeListener<Boolean>() {
-            @Override
-            public void onValueChange(Boolean strikethroug) {
-                strikethroughButton.setChecked(strikethroug);
+            public void onValueChange(StyleState styleState) {
+                boldButton.setChecked(styleState.bold);
+                italicButton.setChecked(styleState.italic);
+                underlineButton.setChecked(styleState.underline);
+                strikethroughButton.setChecked(styleState.strikeThrough);
+                if (styleState.size != null) {
+                    onSizeChange(styleState.size);
+                }
+                if (styleState.color != null) {
+                    colorValue.setColor(styleState.color);
+                }
+                setChecked(leftButton, styleState.alignment != null && styleState.alignment.equals(Layout.Alignment.ALIGN_NORMAL));
+                setChecked(centerButton, styleState.alignment != null && styleState.alignment.equals(Layout.Alignment.ALIGN_CENTER));
+                setChecked(rightButton, styleState.alignment != null && styleState.alignment.equals(Layout.Alignment.ALIGN_OPPOSITE));
+                setChecked(numberListButton, styleState.numberList);
+                setChecked(bulletListButton, styleState.bulletList);
             }
         });
         richEditText.addOnHistoryChangeListener(new HistoryModule.OnHistoryChangeListener() {
@@ -466,47 +463,6 @@ public class DefaultPanelView extends RelativeLayout {
                 redoButton.setColorFilter(redoSteps > 0 ? blackColor : grayColor);
             }
         });
-        richEditText.addOnSizeChangeListener(new BaseRichEditText.OnValueChangeListener<Float>() {
-            @Override
-            public void onValueChange(Float size) {
-                for (int i = 0; i < adapter.getCount(); i++) {
-                    SizeSpanController.Size sizeEnum = adapter.getItem(i);
-                    if (sizeEnum.getSize() == size) {
-                        currentSizeItem = i;
-                        setFontSizeControls();
-                        return;
-                    }
-                }
-
-            }
-        });
-        richEditText.addOnColorChangeListener(new BaseRichEditText.OnValueChangeListener<Integer>() {
-            @Override
-            public void onValueChange(Integer value) {
-                colorValue.setColor(value);
-            }
-        });
-        richEditText.addOnAlignmentChangeListener(new BaseRichEditText.OnValueChangeListener<Layout.Alignment>() {
-
-            @Override
-            public void onValueChange(Layout.Alignment value) {
-                setChecked(leftButton, value != null && value.equals(Layout.Alignment.ALIGN_NORMAL));
-                setChecked(centerButton, value != null && value.equals(Layout.Alignment.ALIGN_CENTER));
-                setChecked(rightButton, value != null && value.equals(Layout.Alignment.ALIGN_OPPOSITE));
-            }
-        });
-        richEditText.addOnNumberListChangeListener(new BaseRichEditText.OnValueChangeListener<Boolean>() {
-            @Override
-            public void onValueChange(Boolean value) {
-                setChecked(numberListButton, value);
-            }
-        });
-        richEditText.addOnBulletListChangeListener(new BaseRichEditText.OnValueChangeListener<Boolean>() {
-            @Override
-            public void onValueChange(Boolean value) {
-                setChecked(bulletListButton, value);
-            }
-        });
         leftButton.setOnCheckedChangeListener(new ToggleImageButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(ToggleImageButton buttonView, boolean isChecked) {
@@ -684,6 +640,17 @@ public class DefaultPanelView extends RelativeLayout {
         checkBox.setChecked(checked, false);
     }
 
+    private void onSizeChange(float size) {
+        for (int i = 0; i < adapter.getCount(); i++) {
+            SizeSpanController.Size sizeEnum = adapter.getItem(i);
+            if (sizeEnum.getSize() == size) {
+                currentSizeItem = i;
+                setFontSizeControls();
+                return;
+            }
+        }
+    }
+
     public void addOnAlignmentClickListener(BaseRichEditText.OnValueChangeListener<Layout.Alignment> onAlignmentClickListener) {
         onAlignmentClickListeners.add(onAlignmentClickListener);
     }